@@ -0,0 +1,278 @@
+package ps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.knowledgebooks.nlp.fasttag.FastTag;
+
+import ps.ClassificationScheduler.Estimate;
+import ps.ClassificationScheduler.Lane;
+import ps.changeclassifier.ChangeClassifier;
+import ps.models.ChangeTag;
+import ps.models.DocumentPair;
+import ps.utils.LP;
+import ps.utils.NDJSONWriter;
+import ps.utils.SummaryWriter;
+
+/**
+ * Classifies changes in many pairs of documents within one process.
+ * <p>
+ * Pairs are either listed in a manifest (one pair per line, paths separated by whitespace, relative paths are
+ * resolved against the manifest's directory) or matched by the names <code>name_1.txt</code> and
+ * <code>name_2.txt</code> in a directory.
+ * <p>
+ * Pairs are processed concurrently by a fixed number of workers of a {@link ClassificationScheduler}, cheapest
+ * first. Before any pair runs, each one is read once to estimate its cost from its length and the sentences that
+ * differ (see {@link ClassificationScheduler#estimate}); the text is dropped again and read anew when the pair runs,
+ * so that queued pairs do not hold their text. Results are written as newline-delimited JSON, one object per pair, in
+ * order of completion.
+ */
+public class BatchRunner {
+    /**
+     * System property enabling summaries instead of changes in results, see {@link #setSummary(boolean)}.
+     */
+    public static final String SUMMARY = "nutcracker.batch.summary";
+    private static final String SUFFIX1 = "_1.txt";
+    private static final String SUFFIX2 = "_2.txt";
+
+    // Write counts per tag and paragraph instead of the changes
+    private static volatile boolean summary = Boolean.getBoolean(SUMMARY);
+
+    private BatchRunner() {
+    }
+
+    // public methods
+    /**
+     * @param source manifest file or directory with document pairs.
+     * @return list of document pairs to be compared.
+     */
+    public static List<DocumentPair> getPairs(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            return findPairs(source);
+        }
+        return readManifest(source);
+    }
+
+    /**
+     * @param manifest file with one pair per line. Empty lines and lines starting with # are ignored.
+     * @return list of document pairs in the order of the manifest.
+     */
+    public static List<DocumentPair> readManifest(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<DocumentPair> pairs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest);
+        for (int i = 0; i < lines.size(); ++i) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] paths = line.split("\\s+");
+            if (paths.length != 2) {
+                throw new IOException("Line " + (i + 1) + " of " + manifest + " is not a pair of paths");
+            }
+            pairs.add(new DocumentPair(Integer.toString(pairs.size() + 1), base.resolve(paths[0]).toString(),
+                    base.resolve(paths[1]).toString()));
+        }
+        return pairs;
+    }
+
+    /**
+     * @param dir directory with files <code>name_1.txt</code> and <code>name_2.txt</code>.
+     * @return list of document pairs ordered by name.
+     */
+    public static List<DocumentPair> findPairs(Path dir) throws IOException {
+        // absolute, like the paths of a manifest, so that jobs of a queue can be read from any directory
+        Path base = dir.toAbsolutePath();
+        List<String> names;
+        try (Stream<Path> files = Files.list(base)) {
+            names = files.map(f -> f.getFileName().toString()).filter(f -> f.endsWith(SUFFIX1)).sorted()
+                    .collect(Collectors.toList());
+        }
+        List<DocumentPair> pairs = new ArrayList<>(names.size());
+        for (String name : names) {
+            String id = name.substring(0, name.length() - SUFFIX1.length());
+            Path second = base.resolve(id + SUFFIX2);
+            if (Files.isRegularFile(second)) {
+                pairs.add(new DocumentPair(id, base.resolve(name).toString(), second.toString()));
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Enables or disables summaries. If enabled, the result of a pair has a "summary" with counts per tag and
+     * paragraph (see {@link SummaryWriter}) instead of its "changes", and classified changes are not kept.
+     */
+    public static void setSummary(boolean summary) {
+        BatchRunner.summary = summary;
+    }
+
+    /**
+     * Classifies changes in all pairs and writes one JSON object per pair to the output file.
+     * <br>
+     * @param pairs document pairs to be compared.
+     * @param output path of the NDJSON file with results.
+     * @param threads number of concurrent workers.
+     * @return number of pairs that could not be processed.
+     */
+    public static int run(List<DocumentPair> pairs, Path output, int threads) throws IOException {
+        ChangeClassifier.setVerbose(false);
+        warmUp();
+
+        AtomicLong chars = new AtomicLong();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        // all pairs are estimated first, so that the cheapest run first from the start
+        List<Estimate> estimates = new ArrayList<>(pairs.size());
+        for (DocumentPair pair : pairs) {
+            estimates.add(estimate(pair));
+        }
+        ClassificationScheduler scheduler = new ClassificationScheduler(threads);
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(pairs.size());
+            for (int i = 0; i < pairs.size(); ++i) {
+                DocumentPair pair = pairs.get(i);
+                futures.add(scheduler.submit(Lane.BULK, estimates.get(i), () -> {
+                    JSONObject result = process(pair, chars, failures);
+                    writeLine(writer, result.toString());
+                    return null;
+                }));
+            }
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // pairs, whose task failed outside of process, e.g. with an Error, are reported as failed as well
+            for (int i = 0; i < pairs.size(); ++i) {
+                try {
+                    futures.get(i).getNow(null);
+                } catch (CompletionException | CancellationException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JSONObject result = fail(pairs.get(i), cause, failures);
+                    writeLine(writer, result.toString());
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Processed " + pairs.size() + " pairs in " + String.format("%.2f", seconds) + " s ("
+                + String.format("%.2f", pairs.size() / seconds) + " pairs/s, "
+                + String.format("%.0f", chars.get() / seconds) + " chars/s)");
+        System.out.println("Failed: " + failures.size());
+        failures.forEach((id, error) -> System.out.println("\t" + id + ": " + error));
+        System.out.println("Stages:");
+        ChangeClassifier.getPipeline().getStatistics().forEach(stats -> System.out.println("\t" + stats));
+        System.out.println("Caches:");
+        System.out.println("\t" + ChangeClassifier.getWordPairCache());
+        System.out.println("Scheduler:");
+        System.out.println("\t" + scheduler);
+        if (ChangeClassifier.getPreClassifier() != null) {
+            System.out.println("Pre-classifier:");
+            System.out.println("\t" + ChangeClassifier.getPreClassifier());
+        }
+        System.out.println("Results are found at: " + output.toAbsolutePath());
+        return failures.size();
+    }
+    // public methods
+
+    // private methods
+    // Loads dictionary, tagger lexicon and WordNet once, before the workers start.
+    static void warmUp() {
+        LP.inDictionary("warm");
+        FastTag.tag(Arrays.asList("warm"));
+        NutCracker.getChangeClassification("The cat sat.", "The dog sat.");
+    }
+
+    /*
+    Estimate of a pair from both of its documents, which are not kept. Pairs that cannot be read are queued as
+    free, so that their failure is reported early.
+    */
+    private static Estimate estimate(DocumentPair pair) {
+        try {
+            return ClassificationScheduler.estimate(NutCracker.readFile(pair.getPath1()),
+                    NutCracker.readFile(pair.getPath2()));
+        } catch (Exception e) {
+            return new Estimate(0, 0);
+        }
+    }
+
+    // Classifies one pair, capturing any failure in the result.
+    static JSONObject process(DocumentPair pair, AtomicLong chars, Map<String, String> failures) {
+        JSONObject result = new JSONObject();
+        result.put("id", pair.getId());
+        result.put("source1", pair.getPath1());
+        result.put("source2", pair.getPath2());
+        long start = System.nanoTime();
+        try {
+            String text1 = NutCracker.readFile(pair.getPath1());
+            String text2 = NutCracker.readFile(pair.getPath2());
+            if (summary) {
+                result.put("summary", NutCracker.getChangeSummary(text1, text2));
+            } else {
+                ArrayList<ChangeTag> classification = NutCracker.getChangeClassification(text1, text2);
+                JSONArray changes = new JSONArray();
+                for (ChangeTag ct : classification) {
+                    changes.put(NDJSONWriter.toJSON(ct));
+                }
+                result.put("changes", changes);
+            }
+            chars.addAndGet(text1.length() + text2.length());
+            result.put("status", "ok");
+        } catch (Exception e) {
+            fail(result, pair, e, failures);
+        }
+        result.put("millis", (System.nanoTime() - start) / 1000000);
+        return result;
+    }
+
+    // Result of a pair that failed without a result of process.
+    static JSONObject fail(DocumentPair pair, Throwable error, Map<String, String> failures) {
+        JSONObject result = new JSONObject();
+        result.put("id", pair.getId());
+        result.put("source1", pair.getPath1());
+        result.put("source2", pair.getPath2());
+        fail(result, pair, error, failures);
+        return result;
+    }
+
+    private static void fail(JSONObject result, DocumentPair pair, Throwable e, Map<String, String> failures) {
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        failures.put(pair.getId(), error);
+        result.put("status", "failed");
+        result.put("error", error);
+    }
+
+    private static void writeLine(Writer writer, String line) {
+        synchronized (writer) {
+            try {
+                writer.write(line);
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                System.out.println("Could not write result: " + e.getMessage());
+            }
+        }
+    }
+    // private methods
+}
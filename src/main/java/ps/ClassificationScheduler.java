@@ -0,0 +1,305 @@
+package ps;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs classification jobs of differing cost on a fixed number of workers.
+ * <p>
+ * The cost of a pair of documents is estimated before it runs, from the length of both versions and the number of
+ * sentences that differ once the common prefix and suffix are trimmed; changed sentences dominate, since each of
+ * them may be sent to LanguageTool and WordNet. Jobs wait in two lanes, interactive before bulk, and within a lane
+ * the cheapest job runs first, so that a few rewritten papers do not hold up many small edits.
+ * <p>
+ * Every job weighs as many characters as both versions have. Jobs only start while the characters in flight stay
+ * within a limit, so that several huge documents are not classified at the same time; a job heavier than the
+ * limit runs alone. The limit is read from the system property nutcracker.scheduler.maxChars and defaults to one
+ * character per kilobyte of the maximum heap.
+ */
+public class ClassificationScheduler {
+    /**
+     * System property with the maximum number of characters of documents classified at the same time.
+     */
+    public static final String MAX_CHARS = "nutcracker.scheduler.maxChars";
+    // Cost of a changed sentence in characters of text
+    private static final long SENTENCE_COST = 10000;
+    // Heap in bytes per character of documents in flight
+    private static final long BYTES_PER_CHAR = 1024;
+
+    /**
+     * Priority lanes. Interactive jobs run before any bulk job that has not started yet.
+     */
+    public static enum Lane {
+        INTERACTIVE, BULK
+    }
+
+    private final long maxChars;
+    private final Thread[] workers;
+    private final PriorityQueue<Job<?>> interactive = new PriorityQueue<>();
+    private final PriorityQueue<Job<?>> bulk = new PriorityQueue<>();
+    private long sequence = 0;
+    private long charsInFlight = 0;
+    private long peakChars = 0;
+    private int completed = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param threads Number of workers.
+     * @param maxChars Maximum number of characters of documents classified at the same time.
+     */
+    public ClassificationScheduler(int threads, long maxChars) {
+        this.maxChars = Math.max(1, maxChars);
+        this.workers = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < this.workers.length; ++i) {
+            this.workers[i] = new Thread(this::work, "classifier-" + (i + 1));
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Constructor, limiting characters in flight as configured by system properties.
+     * <p>
+     * @param threads Number of workers.
+     */
+    public ClassificationScheduler(int threads) {
+        this(threads, Long.getLong(MAX_CHARS, Runtime.getRuntime().maxMemory() / BYTES_PER_CHAR));
+    }
+
+    // public methods
+    /**
+     * @param text1 Original version of a document.
+     * @param text2 Modified version of a document.
+     * @return Estimated cost and weight of classifying the changes between both versions.
+     */
+    public static Estimate estimate(String text1, String text2) {
+        int n1 = text1.length(), n2 = text2.length();
+        int prefix = 0;
+        while (prefix < n1 && prefix < n2 && text1.charAt(prefix) == text2.charAt(prefix)) {
+            ++prefix;
+        }
+        int suffix = 0;
+        while (suffix < n1 - prefix && suffix < n2 - prefix
+                && text1.charAt(n1 - 1 - suffix) == text2.charAt(n2 - 1 - suffix)) {
+            ++suffix;
+        }
+        HashSet<String> sentences1 = sentences(text1, prefix, n1 - suffix);
+        HashSet<String> sentences2 = sentences(text2, prefix, n2 - suffix);
+        int changed = 0;
+        for (String s : sentences1) {
+            if (!sentences2.contains(s)) {
+                ++changed;
+            }
+        }
+        for (String s : sentences2) {
+            if (!sentences1.contains(s)) {
+                ++changed;
+            }
+        }
+        return new Estimate(changed, (long) n1 + n2);
+    }
+
+    /**
+     * Queues a job with a known estimate, e.g. one that reads its documents only when it runs.
+     * <br>
+     * @param lane Lane of the job.
+     * @param estimate Estimated cost and weight of the job.
+     * @param task Work of the job.
+     * @return Future of the result, completed exceptionally if the task fails or the scheduler is shut down.
+     */
+    public synchronized <T> CompletableFuture<T> submit(Lane lane, Estimate estimate, Callable<T> task) {
+        Job<T> job = new Job<>(estimate, this.sequence++, task);
+        if (this.shutdown) {
+            job.result.completeExceptionally(new IllegalStateException("Scheduler is shut down"));
+            return job.result;
+        }
+        (lane == Lane.INTERACTIVE ? this.interactive : this.bulk).add(job);
+        notifyAll();
+        return job.result;
+    }
+
+    /**
+     * Lets the workers finish all queued jobs and stop; no further jobs are accepted.
+     */
+    public synchronized void shutdown() {
+        this.shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return true, if all workers stopped in time.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long nanos = unit.toNanos(timeout);
+        for (Thread worker : this.workers) {
+            long remaining = nanos - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Scheduler statistics as a string.
+     * <p>
+     * Example: 12 jobs, 4 threads, peak 130000 of 4000000 chars in flight
+     */
+    public synchronized String toString() {
+        return this.completed + " jobs, " + this.workers.length + " threads, peak " + this.peakChars
+                + " of " + this.maxChars + " chars in flight";
+    }
+    // public methods
+
+    // private methods
+    private void work() {
+        Job<?> job;
+        while ((job = take()) != null) {
+            try {
+                job.run();
+            } finally {
+                release(job);
+            }
+        }
+    }
+
+    /*
+    Next job that fits into the limit, waiting until one does. Only the head of the lane is considered,
+    so that a heavy job is not passed over forever. Null once shut down and both lanes are empty.
+    */
+    private synchronized Job<?> take() {
+        while (true) {
+            PriorityQueue<Job<?>> lane = this.interactive.isEmpty() ? this.bulk : this.interactive;
+            Job<?> head = lane.peek();
+            if (head == null && this.shutdown) {
+                return null;
+            }
+            long weight = head == null ? 0 : Math.min(head.estimate.getWeight(), this.maxChars);
+            if (head != null && this.charsInFlight + weight <= this.maxChars) {
+                lane.poll();
+                this.charsInFlight += weight;
+                this.peakChars = Math.max(this.peakChars, this.charsInFlight);
+                return head;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private synchronized void release(Job<?> job) {
+        this.charsInFlight -= Math.min(job.estimate.getWeight(), this.maxChars);
+        ++this.completed;
+        notifyAll();
+    }
+
+    // Distinct trimmed sentences of a range, split where LP.nearestSentence splits.
+    private static HashSet<String> sentences(String text, int start, int end) {
+        HashSet<String> sentences = new HashSet<>();
+        int from = start;
+        for (int i = start; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '?' || c == '!' || c == '\n') {
+                add(sentences, text, from, i);
+                from = i + 1;
+            }
+        }
+        add(sentences, text, from, end);
+        return sentences;
+    }
+
+    private static void add(HashSet<String> sentences, String text, int from, int to) {
+        String sentence = text.substring(from, to).trim();
+        if (!sentence.isEmpty()) {
+            sentences.add(sentence);
+        }
+    }
+    // private methods
+
+    /**
+     * Estimated cost and weight of a job.
+     */
+    public static final class Estimate {
+        private final int changedSentences;
+        private final long weight;
+
+        /**
+         * Constructor.
+         * <p>
+         * @param changedSentences Number of sentences found in only one version.
+         * @param weight Number of characters of both versions.
+         */
+        public Estimate(int changedSentences, long weight) {
+            this.changedSentences = changedSentences;
+            this.weight = weight;
+        }
+
+        /**
+         * @return Number of sentences found in only one version.
+         */
+        public int getChangedSentences() {
+            return this.changedSentences;
+        }
+
+        /**
+         * @return Number of characters of both versions.
+         */
+        public long getWeight() {
+            return this.weight;
+        }
+
+        /**
+         * @return Expected cost in characters of text: the length of both versions plus a fixed amount per changed
+         * sentence.
+         */
+        public long getCost() {
+            return this.weight + SENTENCE_COST * this.changedSentences;
+        }
+
+        public String toString() {
+            return "Estimate(" + this.changedSentences + " sentences | " + this.weight + " chars)";
+        }
+    }
+
+    // Queued job, cheapest first and in order of submission among equal costs.
+    private static class Job<T> implements Comparable<Job<?>> {
+        final Estimate estimate;
+        final long sequence;
+        final Callable<T> task;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Job(Estimate estimate, long sequence, Callable<T> task) {
+            this.estimate = estimate;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        void run() {
+            try {
+                this.result.complete(this.task.call());
+            } catch (Throwable e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+
+        public int compareTo(Job<?> other) {
+            int c = Long.compare(this.estimate.getCost(), other.estimate.getCost());
+            return c != 0 ? c : Long.compare(this.sequence, other.sequence);
+        }
+    }
+}
@@ -1,16 +1,31 @@
 package ps;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
 
 import ps.changeclassifier.ChangeClassifier;
 import ps.changeclassifier.ChangeDetector;
+import ps.changeclassifier.PreClassifier;
+import ps.changeclassifier.RevisionHistory;
+import ps.changeclassifier.TagSampler;
 import ps.models.Change;
 import ps.models.ChangeTag;
+import ps.models.DocumentPair;
+import ps.models.PositionedDiff;
+import ps.models.RevisionTag;
+import ps.utils.ChangeTagWriter;
+import ps.utils.ChangeTagWriter.Format;
+import ps.utils.SummaryWriter;
 import ps.utils.Visualizer;
 
 /**
@@ -44,22 +59,84 @@ public class NutCracker {
      */
     public static ArrayList<ChangeTag> getChangeClassification(String text1, String text2) {
         // 1. Detect Changes
-        ArrayList<Change> changes = ChangeDetector.getChanges(text1, text2);
+        ArrayList<Change> changes = ChangeDetector.getDocumentChanges(text1, text2);
         // 2. Analyze Changes
         ArrayList<ChangeTag> class_changes = ChangeClassifier.getClassification(changes, text1, text2);
         // 3. Return Classification
         return class_changes;
     }
 
+    /**
+     * Delivers counts of classified changes per tag and paragraph instead of the changes, see
+     * {@link SummaryWriter}. Classified changes are counted as they are produced and not kept.
+     */
+    public static JSONObject getChangeSummary(String text1, String text2) {
+        SummaryWriter summary = new SummaryWriter(text1);
+        ChangeClassifier.classify(ChangeDetector.getDocumentChanges(text1, text2), text1, text2, summary);
+        return summary.toJSON();
+    }
+
     /*
     Entry point.
      */
     public static void main(String[] args) throws IOException {
+        Format format = null;
+        String output = null;
+        while (args.length > 0) {
+            if (args.length >= 3 && args[0].equals("-d")) {
+                try {
+                    ChangeClassifier.setBudget(Long.parseLong(args[1]), Long.parseLong(args[2]));
+                } catch (NumberFormatException nfe) {
+                    System.out.println(args[1] + " " + args[2] + " is not a valid time budget");
+                    return;
+                }
+                args = Arrays.copyOfRange(args, 3, args.length);
+            } else if (args.length >= 3 && args[0].equals("-o")) {
+                try {
+                    format = Format.valueOf(args[1].toUpperCase());
+                } catch (IllegalArgumentException iae) {
+                    System.out.println(args[1] + " is not a valid output format");
+                    return;
+                }
+                output = args[2];
+                args = Arrays.copyOfRange(args, 3, args.length);
+            } else if (args.length >= 1 && args[0].equals("-n")) {
+                ChangeDetector.setNormalization(true);
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args.length >= 1 && args[0].equals("-s")) {
+                ChangeClassifier.setSentenceAlignment(true);
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args.length >= 1 && args[0].equals("-p")) {
+                ChangeClassifier.setPreClassifier(PreClassifier.fromProperties());
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else {
+                break;
+            }
+        }
+        if (args.length >= 2 && args[0].equals("-h")) {
+            runHistory(args);
+            return;
+        }
+        if (args.length >= 3 && args.length <= 4 && args[0].equals("-b")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length >= 4 && args.length <= 5 && args[0].equals("-q")) {
+            runShard(args);
+            return;
+        }
+        if (args.length >= 3 && args.length <= 5 && args[0].equals("-a")) {
+            runSample(args);
+            return;
+        }
+        if (args.length == 3 && args[0].equals("-m")) {
+            if (ShardedBatchRunner.merge(Paths.get(args[1]), Paths.get(args[2])) > 0) {
+                System.exit(1);
+            }
+            return;
+        }
         if (args.length != 3) {
-            System.out.println("Usage: java -jar nutcracker.jar -option source1 source2\n"
-                    + "\nwhere options include:\n" + "\t -t\t analyze two strings (source1, source2)\n"
-                    + "\t -f\t analyze content of two plain text files (source1, source2)\n"
-                    + "\nwhere source1, source2 are either text snippets or paths to the text files to be analyzed.");
+            printUsage();
             return;
         }
 
@@ -82,8 +159,185 @@ public class NutCracker {
             return;
         }
 
-        ArrayList<ChangeTag> classification = getChangeClassification(text1, text2);
+        // the edit script is shared by change detection and visualization
+        ArrayList<PositionedDiff> diffs = ChangeDetector.getDocumentDiffs(text1, text2);
+        ArrayList<Change> changes = ChangeDetector.getChanges(diffs, text1, text2);
+        if (format != null) {
+            writeClassification(changes, text1, text2, format, output);
+            return;
+        }
+        ArrayList<ChangeTag> classification = ChangeClassifier.getClassification(changes, text1, text2);
         // classification.stream().forEach(System.out::println);
-        Visualizer.visualize(classification, text1, text2);
+        Visualizer.visualize(classification, changes, diffs);
+    }
+
+    /*
+    Streams the classification to a file, or to standard output if the path is "-".
+    */
+    private static void writeClassification(ArrayList<Change> changes, String text1, String text2, Format format,
+            String output) throws IOException {
+        ChangeClassifier.setVerbose(false);
+        boolean stdout = output.equals("-");
+        OutputStream out = stdout ? unclosable(System.out) : Files.newOutputStream(Paths.get(output));
+        try (ChangeTagWriter writer = ChangeTagWriter.create(format, out, text1)) {
+            ChangeClassifier.classify(changes, text1, text2, writer);
+        }
+    }
+
+    // Stream that is only flushed when the writer closes it, so that standard output stays usable.
+    private static OutputStream unclosable(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    /*
+    Classifies changes in a history of versions, given either as a directory or as a list of files.
+    */
+    private static void runHistory(String[] args) {
+        List<String> paths = new ArrayList<>();
+        if (args.length == 2 && Files.isDirectory(Paths.get(args[1]))) {
+            try (Stream<Path> files = Files.list(Paths.get(args[1]))) {
+                files.filter(Files::isRegularFile).map(Path::toString).sorted().forEach(paths::add);
+            } catch (IOException err) {
+                System.out.println("Could not list directory " + args[1]);
+                return;
+            }
+        } else {
+            paths.addAll(Arrays.asList(args).subList(1, args.length));
+        }
+        if (paths.size() < 2) {
+            System.out.println("History needs at least two versions");
+            return;
+        }
+
+        List<String> versions = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            try {
+                versions.add(readFile(path));
+            } catch (Exception err) {
+                System.out.println("Could not read file " + path);
+                return;
+            }
+        }
+
+        ArrayList<RevisionTag> timeline = RevisionHistory.getTimeline(versions);
+        System.out.println();
+        timeline.stream().forEach(System.out::println);
+    }
+
+    /*
+    Classifies changes in a batch of document pairs: -b source output [threads].
+    */
+    private static void runBatch(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 4) {
+            try {
+                threads = Integer.parseInt(args[3]);
+            } catch (NumberFormatException nfe) {
+                System.out.println(args[3] + " is not a valid number of threads");
+                return;
+            }
+        }
+        List<DocumentPair> pairs;
+        try {
+            pairs = BatchRunner.getPairs(Paths.get(args[1]));
+        } catch (IOException err) {
+            System.out.println("Could not read pairs from " + args[1] + ": " + err.getMessage());
+            return;
+        }
+        BatchRunner.run(pairs, Paths.get(args[2]), Math.max(1, threads));
+    }
+
+    /*
+    Estimates the tag distribution of two files from a sample of changes: -a source1 source2 [maxSample [margin]]
+    */
+    private static void runSample(String[] args) {
+        int maxSample = 400;
+        double margin = 0.05;
+        try {
+            if (args.length >= 4) {
+                maxSample = Integer.parseInt(args[3]);
+            }
+            if (args.length == 5) {
+                margin = Double.parseDouble(args[4]);
+            }
+        } catch (NumberFormatException nfe) {
+            System.out.println("Sample size and margin must be numbers");
+            return;
+        }
+        String text1, text2;
+        try {
+            text1 = readFile(args[1]);
+            text2 = readFile(args[2]);
+        } catch (Exception err) {
+            System.out.println("Could not read files");
+            return;
+        }
+        ChangeClassifier.setVerbose(false);
+        ArrayList<Change> changes = ChangeDetector.getDocumentChanges(text1, text2);
+        System.out.print(new TagSampler(maxSample, margin, 42).estimate(changes, text1, text2));
+    }
+
+    /*
+    Runs one worker of a sharded batch: -q source queueDirectory shard/shards [threads]
+    */
+    private static void runShard(String[] args) throws IOException {
+        int shard, shards, threads = Runtime.getRuntime().availableProcessors();
+        try {
+            String[] spec = args[3].split("/");
+            shard = Integer.parseInt(spec[0]);
+            shards = Integer.parseInt(spec[1]);
+            if (args.length == 5) {
+                threads = Integer.parseInt(args[4]);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println(args[3] + " is not a valid shard (k/n)" + (args.length == 5 ? " or " + args[4]
+                    + " is not a valid number of threads" : ""));
+            return;
+        }
+        if (shard < 1 || shard > shards) {
+            System.out.println(args[3] + " is not a valid shard (k/n with 1 <= k <= n)");
+            return;
+        }
+        List<DocumentPair> pairs;
+        try {
+            pairs = BatchRunner.getPairs(Paths.get(args[1]));
+        } catch (IOException err) {
+            System.out.println("Could not read pairs from " + args[1] + ": " + err.getMessage());
+            return;
+        }
+        ShardedBatchRunner.work(pairs, Paths.get(args[2]), shard, shards, Math.max(1, threads));
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java -jar nutcracker.jar [-n] [-s] [-p] [-d documentMillis changeMillis] [-o format output] -option source1 source2\n"
+                + "\nwhere options include:\n" + "\t -t\t analyze two strings (source1, source2)\n"
+                + "\t -f\t analyze content of two plain text files (source1, source2)\n"
+                + "\t -h\t analyze a history of plain text files (source1 ... sourceN or a directory)\n"
+                + "\t -b\t analyze a batch of pairs (manifest or directory, output NDJSON file, [threads])\n"
+                + "\t -q\t run worker k of n of a batch shared through a queue directory (manifest or directory,\n"
+                + "\t\t queue directory, k/n, [threads])\n"
+                + "\t -a\t estimate the tag distribution of two plain text files from a sample of changes (source1,\n"
+                + "\t\t source2, [maximum sample size (400), [margin of the 95% intervals (0.05)]])\n"
+                + "\t -m\t merge the results of a queue directory into one NDJSON file (queue directory, output)\n"
+                + "\nwhere source1, source2 are either text snippets or paths to the text files to be analyzed.\n"
+                + "\n -n compares documents with whitespace collapsed and reports changes of whitespace as formatting"
+                + "\n    without analyzing them (for re-exported documents with different line wrapping or spacing)."
+                + "\n -s aligns the sentences of both versions and analyzes grammar, rephrasing and topic once per"
+                + "\n    pair of aligned sentences instead of once per change."
+                + "\n -p tags changes whose cheap features decide the tag with enough confidence without running the"
+                + "\n    expensive analyses (see nutcracker.preclassifier.threshold, audit and model)."
+                + "\n -d limits the time spent on expensive analyses of a document and of each change."
+                + "\n -o streams the classification of -t or -f to output (a file or - for standard output)"
+                + "\n    instead of visualizing it; format is one of text, ndjson, binary, offsets, summary.");
     }
 }
\ No newline at end of file
@@ -0,0 +1,434 @@
+package ps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import ps.changeclassifier.ChangeClassifier;
+import ps.changeclassifier.ClassificationPipeline.StageStatistics;
+import ps.changeclassifier.PreClassifier;
+import ps.models.DocumentPair;
+
+/**
+ * Classifies a batch of document pairs in several processes, possibly on several machines sharing a filesystem.
+ * <p>
+ * Processes meet in a queue directory:
+ * <ul>
+ * <li>jobs.ndjson: the pairs, numbered in the order of the manifest or directory. Written by the first worker, so
+ * that every worker numbers them alike.</li>
+ * <li>locks/&lt;job&gt;.lock: created atomically by the worker that claims a job, touched while it runs and
+ * deleted once its result is written. A lock that has not been touched for nutcracker.queue.staleMillis (60000 by default) belongs to a crashed worker and may
+ * be claimed again.</li>
+ * <li>results/&lt;job&gt;.json: result of a job, in the format of {@link BatchRunner}, moved into place atomically.
+ * </li>
+ * <li>metrics/&lt;worker&gt;.json: throughput, stage statistics and pre-classifier rates of each worker.</li>
+ * </ul>
+ * Worker k of n claims the jobs k, k + n, k + 2n, ... first, so that shards are split deterministically, and then
+ * helps with the jobs of others. It stops once every job has a result. Merging writes all results ordered by job.
+ */
+public class ShardedBatchRunner {
+    /**
+     * System property with the time in milliseconds after which an untouched lock is taken for abandoned.
+     */
+    public static final String STALE_MILLIS = "nutcracker.queue.staleMillis";
+    private static final String JOBS = "jobs.ndjson";
+    private static final String LOCKS = "locks";
+    private static final String RESULTS = "results";
+    private static final String METRICS = "metrics";
+
+    private ShardedBatchRunner() {
+    }
+
+    // public methods
+    /**
+     * Runs one worker until every job of the queue has a result.
+     * <br>
+     * @param pairs document pairs of the batch, used if the queue has no jobs yet.
+     * @param queue queue directory shared by all workers.
+     * @param shard number of this worker, from 1 to shards.
+     * @param shards number of workers the jobs are split across.
+     * @param threads number of concurrent jobs of this worker.
+     * @return number of jobs of this worker that failed.
+     */
+    public static int work(List<DocumentPair> pairs, Path queue, int shard, int shards, int threads)
+            throws IOException {
+        Files.createDirectories(queue.resolve(LOCKS));
+        Files.createDirectories(queue.resolve(RESULTS));
+        Files.createDirectories(queue.resolve(METRICS));
+        String worker = shard + "-" + ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^\\w.-]", "_");
+        List<DocumentPair> jobs = publishJobs(queue, pairs, worker);
+        long staleMillis = Long.getLong(STALE_MILLIS, 60000);
+
+        ChangeClassifier.setVerbose(false);
+        BatchRunner.warmUp();
+        AtomicLong chars = new AtomicLong();
+        AtomicLong processed = new AtomicLong();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        Set<Path> held = ConcurrentHashMap.newKeySet();
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queue-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(() -> touch(held, worker), staleMillis / 4, Math.max(1, staleMillis / 4),
+                TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        Thread[] threadsOfWorker = new Thread[Math.max(1, threads)];
+        for (int t = 0; t < threadsOfWorker.length; ++t) {
+            threadsOfWorker[t] = new Thread(() -> {
+                int job;
+                while ((job = claim(queue, jobs.size(), shard - 1, shards, staleMillis, worker, held)) >= 0) {
+                    JSONObject result;
+                    try {
+                        result = BatchRunner.process(jobs.get(job), chars, failures);
+                    } catch (Throwable e) {
+                        // e.g. an Error, which would leave the lock held by the heartbeat forever
+                        result = BatchRunner.fail(jobs.get(job), e, failures);
+                    }
+                    result.put("job", job);
+                    result.put("worker", worker);
+                    Path lock = lock(queue, job);
+                    try {
+                        writeAtomically(queue.resolve(RESULTS).resolve(job + ".json"), result.toString(), worker);
+                        held.remove(lock);
+                        unlock(lock, worker);
+                    } catch (IOException e) {
+                        // the lock goes stale and the job is claimed again
+                        System.out.println("Could not write result of job " + job + ": " + e.getMessage());
+                        held.remove(lock);
+                    }
+                    processed.incrementAndGet();
+                }
+            }, "queue-worker-" + (t + 1));
+            threadsOfWorker[t].start();
+        }
+        for (Thread t : threadsOfWorker) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        heartbeat.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        JSONObject metrics = new JSONObject();
+        metrics.put("worker", worker);
+        metrics.put("shard", shard);
+        metrics.put("pairs", processed.get());
+        metrics.put("failed", failures.size());
+        metrics.put("chars", chars.get());
+        metrics.put("seconds", seconds);
+        JSONArray stages = new JSONArray();
+        for (StageStatistics stats : ChangeClassifier.getPipeline().getStatistics()) {
+            stages.put(new JSONObject().put("name", stats.getName()).put("runs", stats.getInvocations())
+                    .put("tags", stats.getHits()).put("skipped", stats.getSkipped()).put("shared", stats.getShared())
+                    .put("millis", stats.getMillis()));
+        }
+        metrics.put("stages", stages);
+        PreClassifier pre = ChangeClassifier.getPreClassifier();
+        if (pre != null) {
+            metrics.put("preclassifier", new JSONObject().put("checked", pre.getChecked())
+                    .put("bypassed", pre.getBypassed()).put("audited", pre.getAudited())
+                    .put("agreed", pre.getAgreed()));
+        }
+        writeAtomically(queue.resolve(METRICS).resolve(worker + ".json"), metrics.toString(), worker);
+
+        System.out.println("Worker " + worker + " processed " + processed.get() + " of " + jobs.size() + " pairs in "
+                + String.format("%.2f", seconds) + " s, failed: " + failures.size());
+        return failures.size();
+    }
+
+    /**
+     * Writes the results of all jobs ordered by job, and the metrics of all workers summed up to a file next to
+     * it, named like the output with .metrics.json appended.
+     * <br>
+     * @param queue queue directory shared by all workers.
+     * @param output path of the NDJSON file with results.
+     * @return number of jobs without a result.
+     */
+    public static int merge(Path queue, Path output) throws IOException {
+        List<DocumentPair> jobs = readJobs(queue.resolve(JOBS));
+        int missing = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            for (int job = 0; job < jobs.size(); ++job) {
+                Path result = queue.resolve(RESULTS).resolve(job + ".json");
+                if (!Files.isRegularFile(result)) {
+                    System.out.println("\tNo result of job " + job + ": " + jobs.get(job).getId());
+                    ++missing;
+                    continue;
+                }
+                writer.write(new String(Files.readAllBytes(result), StandardCharsets.UTF_8).trim());
+                writer.write('\n');
+            }
+        }
+
+        long pairs = 0, failed = 0, chars = 0;
+        double seconds = 0;
+        // changes checked, bypassed, audited and agreed by the pre-classifiers of all workers, if enabled
+        long[] pre = null;
+        TreeMap<String, double[]> stages = new TreeMap<>();
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(queue.resolve(METRICS))) {
+            list.filter(f -> f.toString().endsWith(".json")).sorted().forEach(files::add);
+        }
+        for (Path file : files) {
+            JSONObject metrics = new JSONObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            pairs += metrics.getLong("pairs");
+            failed += metrics.getLong("failed");
+            chars += metrics.getLong("chars");
+            seconds = Math.max(seconds, metrics.getDouble("seconds"));
+            JSONArray workerStages = metrics.getJSONArray("stages");
+            for (int i = 0; i < workerStages.length(); ++i) {
+                JSONObject s = workerStages.getJSONObject(i);
+                double[] sum = stages.computeIfAbsent(s.getString("name"), k -> new double[5]);
+                sum[0] += s.getLong("runs");
+                sum[1] += s.getLong("tags");
+                sum[2] += s.getLong("skipped");
+                sum[3] += s.getLong("shared");
+                sum[4] += s.getDouble("millis");
+            }
+            JSONObject workerPre = metrics.optJSONObject("preclassifier");
+            if (workerPre != null) {
+                pre = pre == null ? new long[4] : pre;
+                pre[0] += workerPre.getLong("checked");
+                pre[1] += workerPre.getLong("bypassed");
+                pre[2] += workerPre.getLong("audited");
+                pre[3] += workerPre.getLong("agreed");
+            }
+        }
+        JSONObject merged = new JSONObject();
+        merged.put("workers", files.size());
+        merged.put("pairs", pairs);
+        merged.put("failed", failed);
+        merged.put("missing", missing);
+        merged.put("chars", chars);
+        merged.put("seconds", seconds);
+        JSONArray stageList = new JSONArray();
+        stages.forEach((name, sum) -> stageList.put(new JSONObject().put("name", name).put("runs", (long) sum[0])
+                .put("tags", (long) sum[1]).put("skipped", (long) sum[2]).put("shared", (long) sum[3])
+                .put("millis", sum[4])));
+        merged.put("stages", stageList);
+        if (pre != null) {
+            merged.put("preclassifier", new JSONObject().put("checked", pre[0]).put("bypassed", pre[1])
+                    .put("audited", pre[2]).put("agreed", pre[3])
+                    .put("bypassRate", pre[0] > 0 ? (double) pre[1] / pre[0] : 0)
+                    .put("agreementRate", pre[2] > 0 ? (double) pre[3] / pre[2] : 0));
+        }
+        Path metricsFile = output.resolveSibling(output.getFileName() + ".metrics.json");
+        Files.write(metricsFile, merged.toString(2).getBytes(StandardCharsets.UTF_8));
+
+        System.out.println("Merged " + (jobs.size() - missing) + " of " + jobs.size() + " pairs from " + files.size()
+                + " workers (" + pairs + " pairs processed, " + failed + " failed, "
+                + String.format("%.0f", seconds > 0 ? chars / seconds : 0) + " chars/s)");
+        System.out.println("Stages:");
+        stages.forEach((name, sum) -> System.out.println("\t" + name + ": " + (long) sum[0] + " runs, "
+                + (long) sum[1] + " tags, " + (long) sum[2] + " skipped, "
+                + (sum[3] > 0 ? (long) sum[3] + " shared, " : "") + String.format("%.2f", sum[4]) + " ms"));
+        if (pre != null) {
+            System.out.println("Pre-classifier:");
+            System.out.println("\t" + pre[1] + " of " + pre[0] + " changes bypassed, " + pre[3] + " of " + pre[2]
+                    + " audited agreed");
+        }
+        System.out.println("Results are found at: " + output.toAbsolutePath());
+        System.out.println("Metrics are found at: " + metricsFile.toAbsolutePath());
+        return missing;
+    }
+    // public methods
+
+    // private methods
+    /*
+    Jobs of the queue. The first worker writes them; a worker that finds them written reads them instead,
+    so that job numbers do not depend on what each worker sees in the source.
+    */
+    private static List<DocumentPair> publishJobs(Path queue, List<DocumentPair> pairs, String worker)
+            throws IOException {
+        Path file = queue.resolve(JOBS);
+        if (!Files.exists(file)) {
+            StringBuilder lines = new StringBuilder();
+            for (DocumentPair pair : pairs) {
+                lines.append(new JSONObject().put("id", pair.getId()).put("source1", pair.getPath1())
+                        .put("source2", pair.getPath2())).append('\n');
+            }
+            Path tmp = queue.resolve(JOBS + "." + worker + ".tmp");
+            Files.write(tmp, lines.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                // a link fails if another worker published first, unlike a move
+                Files.createLink(file, tmp);
+            } catch (FileAlreadyExistsException e) {
+                // published by another worker
+            } catch (UnsupportedOperationException | IOException e) {
+                if (!Files.exists(file)) {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            Files.deleteIfExists(tmp);
+        }
+        return readJobs(file);
+    }
+
+    private static List<DocumentPair> readJobs(Path file) throws IOException {
+        List<DocumentPair> jobs = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                JSONObject job = new JSONObject(line);
+                jobs.add(new DocumentPair(job.getString("id"), job.getString("source1"), job.getString("source2")));
+            }
+        }
+        return jobs;
+    }
+
+    /*
+    Claims the next job without a result: first those of the own shard, then those of others, starting after the
+    own shard so that helpers spread. Waits while all open jobs are locked by live workers. -1 when all are done.
+    */
+    private static int claim(Path queue, int jobs, int shard, int shards, long staleMillis, String worker,
+            Set<Path> held) {
+        while (true) {
+            boolean open = false;
+            for (int pass = 0; pass < 2; ++pass) {
+                for (int k = 0; k < jobs; ++k) {
+                    int job = (shard + k) % jobs;
+                    if ((job % shards == shard) != (pass == 0)) {
+                        continue;
+                    }
+                    if (Files.exists(queue.resolve(RESULTS).resolve(job + ".json"))) {
+                        continue;
+                    }
+                    open = true;
+                    Path lock = lock(queue, job);
+                    if (tryLock(lock, staleMillis, worker)) {
+                        if (Files.exists(queue.resolve(RESULTS).resolve(job + ".json"))) {
+                            // finished by the worker whose lock went stale
+                            continue;
+                        }
+                        held.add(lock);
+                        return job;
+                    }
+                }
+            }
+            if (!open) {
+                return -1;
+            }
+            try {
+                Thread.sleep(Math.max(10, Math.min(1000, staleMillis / 10)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+    }
+
+    /*
+    Creates the lock file, which fails if it exists. A stale lock is first moved aside. The move takes whatever
+    file is at the lock path by then, which may be a fresh lock another worker created after taking over the stale
+    one; the moved file is therefore checked again, and a fresh one is linked back, which fails rather than
+    replacing a lock created in the meantime. Only one worker succeeds in creating the new lock.
+    */
+    private static boolean tryLock(Path lock, long staleMillis, String worker) {
+        try {
+            Files.write(lock, worker.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // locked, possibly by a crashed worker
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            if (!isStale(lock, staleMillis)) {
+                return false;
+            }
+            Path stale = lock.resolveSibling(lock.getFileName() + "." + worker + ".stale");
+            Files.move(lock, stale, StandardCopyOption.ATOMIC_MOVE);
+            if (!isStale(stale, staleMillis)) {
+                try {
+                    Files.createLink(lock, stale);
+                } catch (FileAlreadyExistsException e) {
+                    // its owner finds out by the token when renewing it
+                }
+                Files.deleteIfExists(stale);
+                return false;
+            }
+            Files.deleteIfExists(stale);
+            return tryLock(lock, staleMillis, worker);
+        } catch (NoSuchFileException e) {
+            // taken over by another worker
+            return false;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /*
+    Deletes a lock once its job has a result, unless another worker took it over, whose heartbeat still renews it.
+    A lock that cannot be deleted does no harm: jobs with a result are not claimed again.
+    */
+    private static void unlock(Path lock, String worker) {
+        try {
+            if (worker.equals(new String(Files.readAllBytes(lock), StandardCharsets.UTF_8))) {
+                Files.deleteIfExists(lock);
+            }
+        } catch (IOException e) {
+            // taken over and released by another worker, or left to go stale
+        }
+    }
+
+    private static boolean isStale(Path lock, long staleMillis) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(lock).toMillis() > staleMillis;
+    }
+
+    private static Path lock(Path queue, int job) {
+        return queue.resolve(LOCKS).resolve(job + ".lock");
+    }
+
+    /*
+    Keeps the locks of running jobs from going stale. A lock that holds the token of another worker was taken
+    over; it is not renewed, and the job finishes with the same result as the other worker's.
+    */
+    private static void touch(Set<Path> held, String worker) {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (Path lock : held) {
+            try {
+                if (!worker.equals(new String(Files.readAllBytes(lock), StandardCharsets.UTF_8))) {
+                    System.out.println("Lost " + lock + " to another worker");
+                    held.remove(lock);
+                    continue;
+                }
+                Files.setLastModifiedTime(lock, now);
+            } catch (IOException e) {
+                System.out.println("Could not renew " + lock + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void writeAtomically(Path file, String content, String worker) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + "." + worker + ".tmp");
+        Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    // private methods
+}
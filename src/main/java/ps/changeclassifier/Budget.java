@@ -0,0 +1,114 @@
+package ps.changeclassifier;
+
+/**
+ * Time budget for classification of a document and of each of its changes.
+ * <p>
+ * Once the budget is used up, expensive analyses (grammar, rephrasing, topic similarity) are skipped and a
+ * change gets the best tag found so far, marked as degraded. Cheap analyses (citation, formatting, spelling,
+ * word substitution) always run.
+ * <p>
+ * Budgets are immutable, so one document budget can be shared between threads.
+ */
+public class Budget {
+    private static final long UNLIMITED = Long.MAX_VALUE;
+
+    // deadlines in terms of System.nanoTime()
+    private final long documentDeadline;
+    private final long changeDeadline;
+    // time given to each change
+    private final long changeNanos;
+
+    private Budget(long documentDeadline, long changeDeadline, long changeNanos) {
+        this.documentDeadline = documentDeadline;
+        this.changeDeadline = changeDeadline;
+        this.changeNanos = changeNanos;
+    }
+
+    // public methods
+    /**
+     * Starts a budget for a document.
+     * <br>
+     * @param documentMillis time for the whole document, unlimited if not positive or too large to be a deadline.
+     * @param changeMillis time for each change, unlimited if not positive or too large to be a deadline.
+     * @return budget for the document.
+     */
+    public static Budget of(long documentMillis, long changeMillis) {
+        long documentDeadline = deadline(System.nanoTime(), toNanos(documentMillis));
+        return new Budget(documentDeadline, UNLIMITED, toNanos(changeMillis));
+    }
+
+    /**
+     * @return budget that is never exhausted.
+     */
+    public static Budget unlimited() {
+        return new Budget(UNLIMITED, UNLIMITED, UNLIMITED);
+    }
+
+    /**
+     * @return budget for a change that starts now and is bounded by the document's budget.
+     */
+    public Budget forChange() {
+        if (this.changeNanos == UNLIMITED) {
+            return new Budget(this.documentDeadline, UNLIMITED, UNLIMITED);
+        }
+        return new Budget(this.documentDeadline, deadline(System.nanoTime(), this.changeNanos), this.changeNanos);
+    }
+
+    /**
+     * @return true, if there is no time left for expensive analyses.
+     */
+    public boolean isExhausted() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * @return milliseconds left, Integer.MAX_VALUE if unlimited.
+     */
+    public int remainingMillis() {
+        long nanos = remainingNanos();
+        if (nanos == UNLIMITED) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, nanos / 1000000));
+    }
+    // public methods
+
+    // private methods
+    private long remainingNanos() {
+        long deadline = Math.min(this.documentDeadline, this.changeDeadline);
+        if (deadline == UNLIMITED) {
+            return UNLIMITED;
+        }
+        try {
+            return Math.subtractExact(deadline, System.nanoTime());
+        } catch (ArithmeticException e) {
+            // a deadline further away than a long counts
+            return UNLIMITED;
+        }
+    }
+
+    // Nanoseconds of a time in milliseconds, unlimited if not positive or if it overflows.
+    private static long toNanos(long millis) {
+        if (millis <= 0) {
+            return UNLIMITED;
+        }
+        try {
+            return Math.multiplyExact(millis, 1000000L);
+        } catch (ArithmeticException e) {
+            return UNLIMITED;
+        }
+    }
+
+    // Deadline of a time from now, unlimited if the time is unlimited or the deadline overflows.
+    private static long deadline(long now, long nanos) {
+        if (nanos == UNLIMITED) {
+            return UNLIMITED;
+        }
+        try {
+            return Math.addExact(now, nanos);
+        } catch (ArithmeticException e) {
+            return UNLIMITED;
+        }
+    }
+    // private methods
+}
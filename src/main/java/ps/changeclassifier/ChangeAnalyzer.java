@@ -3,20 +3,28 @@ package ps.changeclassifier;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import edu.cmu.lti.jawjaw.JAWJAW;
 import edu.cmu.lti.jawjaw.pobj.POS;
-import edu.cmu.lti.lexical_db.ILexicalDatabase;
-import edu.cmu.lti.lexical_db.NictWordNet;
 import edu.cmu.lti.ws4j.impl.HirstStOnge;
 import edu.cmu.lti.ws4j.util.WS4JConfiguration;
 import name.fraser.neil.plaintext.diff_match_patch;
 import name.fraser.neil.plaintext.diff_match_patch.Diff;
 import ps.models.Change;
+import ps.utils.BitParallelLcs;
 import ps.utils.LP;
+import ps.utils.LRUCache;
+import ps.utils.Lemmatizer;
+import ps.utils.Lemmatizer.Lemma;
+import ps.utils.TermVectorIndex;
+import ps.utils.WordNet;
 
 import com.knowledgebooks.nlp.fasttag.FastTag;
 
@@ -25,15 +33,24 @@ import com.knowledgebooks.nlp.fasttag.FastTag;
  */
 public class ChangeAnalyzer {
 
-    // WordNet database
-    private static ILexicalDatabase db = new NictWordNet();
     // Diff-Match-Patch tool
     private static diff_match_patch dmp = new diff_match_patch();
+    // Results of spelling and substitution checks per word pair, shared between documents
+    static final WordPairCache wordPairs = new WordPairCache(16384, 16);
+    // Results of isDecidedElsewhere per pair of sentences, shared between stages and documents
+    private static final LRUCache<String, Boolean> decidedElsewhere = new LRUCache<>(4096);
 
     private ChangeAnalyzer() {
     }
 
     // protected methods
+    /*
+    Drops the cached results of sentence pairs.
+    */
+    protected static void clearSentenceCache() {
+        decidedElsewhere.clear();
+    }
+
     /*
     Checks if a change happened in a citation.
     Simple matching.
@@ -81,13 +98,159 @@ public class ChangeAnalyzer {
         return false;
     }
 
+    /*
+    Spelling check of a change between two words, see spelling(Change). Results are cached per word pair.
+    */
+    protected static int isSpelling(Change change) {
+        return wordPairs.spelling(change, () -> spelling(change));
+    }
+
+    /*
+    Substitution check of a change between two words, see substitution(Change). Results are cached per word pair.
+    */
+    protected static int substitutionSimilarity(Change change) {
+        return wordPairs.substitution(change, () -> substitution(change));
+    }
+
+    /*
+    Checks if change was rephrasing.
+    1. Check is sentence contains any changes that have not been previously analyzed.
+    2. Rephrasing is a property of sentences, but not more than two.
+    3. Tokenize sentences, assign POS-tags, stem if needed.
+    4. Compute binary word vectors.
+    5. Compute similarity matrix using Jiang-Conrath similarity.
+    6. Compute Fernando-Stevenson similarity score.
+    */
+    protected static boolean isRephrasing(Change changed_sent) {
+        // things that can't be rephrasing
+        if (isDecidedElsewhere(changed_sent)) {
+            return false;
+        }
+
+        int sentCount1 = LP.numberOfSentences(changed_sent.getBefore());
+        int sentCount2 = LP.numberOfSentences(changed_sent.getAfter());
+
+        if ((sentCount1 != 1 && sentCount1 != 2) || (sentCount2 != 1 && sentCount2 != 2)) {
+            return false;
+        }
+
+        double sim = LP.semanticSimilarity(changed_sent.getBefore(), changed_sent.getAfter());
+        return sim >= 0.3;
+    }
+
+    /*
+    Checks if a change was grammar correction.
+    1. Check is sentence contains any changes that have not been previously analyzed.
+    2. Grammar is a property of a sentence.
+    3. Check grammar in both sentences.
+    4. Ignore spelling errors (they are analyzed using other method).
+    5. If both are correct, it may be rephrasing or topic changes.
+    6. If both are incorrect or correct sentence was turned into incorrect, no decision can be made.
+    7. If original version was incorrect, and modified is correct, then it was grammar change.
+    */
+    protected static int isGrammar(Change changed_sent) {
+        return isGrammar(changed_sent, Budget.unlimited());
+    }
+
+    /*
+    Checks if a change was grammar correction, waiting for LanguageTool not longer than the budget allows.
+    */
+    protected static int isGrammar(Change changed_sent, Budget budget) {
+        // things that can't be rephrasing
+        if (isDecidedElsewhere(changed_sent)) {
+            return -1;
+        }
+
+        int sentCount1 = LP.numberOfSentences(changed_sent.getBefore());
+        int sentCount2 = LP.numberOfSentences(changed_sent.getAfter());
+
+        if (sentCount1 != 1 || sentCount2 != 1) {
+            return -1;
+        }
+        String before = changed_sent.getBefore(), after = changed_sent.getAfter();
+        String check1, check2;
+        if (budget.isExhausted()) {
+            // only responses known in advance
+            check1 = LP.checkGrammar(before, 0);
+            check2 = LP.checkGrammar(after, 0);
+        } else if (LP.getGrammarProfile().isShortCircuit()) {
+            // the modified version only matters if the original one has an issue
+            check1 = await(LP.checkGrammarAsync(before), budget);
+            if (check1 == null || !hasIssue(check1)) {
+                return -1;
+            }
+            check2 = await(LP.checkGrammarAsync(after), budget);
+        } else {
+            // both versions are checked concurrently
+            CompletableFuture<String> request1 = LP.checkGrammarAsync(before);
+            CompletableFuture<String> request2 = LP.checkGrammarAsync(after);
+            check1 = await(request1, budget);
+            check2 = check1 == null ? null : await(request2, budget);
+        }
+        if (check1 == null || check2 == null || !hasIssue(check1)) {
+            return -1;
+        }
+        // corrected, if nothing is found in the modified version
+        JSONArray matches2 = (JSONArray) new JSONObject(check2).get("matches");
+        return matches2.length() == 0 ? 1 : 0;
+    }
+
+    /*
+    Checks how a change influenced the topic of a text.
+    1. Performed if sentences are not grammar correction of paraphrases.
+    2. There should be at least one sentence.
+    3. Extend change to its context (here neighbouring paragraphs).
+    4. Compute Fernando and Stevenson similarity score between text fragments before and after changes.
+    */
+    protected static int relatedTopics(Change changed_sent, String text) {
+        return relatedTopics(changed_sent, text, Budget.unlimited());
+    }
+
+    /*
+    Checks how a change influenced the topic of a text, giving up with -1 once the budget is used up.
+    */
+    protected static int relatedTopics(Change changed_sent, String text, Budget budget) {
+        return relatedTopics(changed_sent, new TermVectorIndex(text), budget);
+    }
+
+    /*
+    Checks how a change influenced the topic of a text, reusing the term vectors of its paragraphs.
+    */
+    protected static int relatedTopics(Change changed_sent, TermVectorIndex index, Budget budget) {
+        // things that can't be rephrasing
+        boolean cond1, cond2;
+        cond1 = isRephrasing(changed_sent);
+        if (cond1 || budget.isExhausted()) {
+            return -1;
+        }
+        cond2 = isGrammar(changed_sent, budget) == 1;
+        if (cond2 || budget.isExhausted()) {
+            return -1;
+        }
+
+        int sentCount1 = LP.numberOfSentences(changed_sent.getBefore());
+        int sentCount2 = LP.numberOfSentences(changed_sent.getAfter());
+
+        // too short of a change to be something important
+        if (sentCount1 == 0 && sentCount2 == 0) {
+            return -1;
+        }
+
+        // compare the paragraph with and without the change
+        double score = index.similarity(changed_sent.getPos1(),
+                changed_sent.getPos1() + changed_sent.getBefore().length(), changed_sent.getAfter());
+        return score >= 0.5 ? 0 : 1;
+    }
+    // protected methods
+
+    // private methods
     /*
     1. Check if both changes are words.
     2. If both are not in dictionary return -1.
     3. If the first one is not in dictionary and has a distance of <= 2, but not 0, then SPELLING.
     4. If both words are correct, and are equal ignoring case, then it is spelling (e.g. north -> North).
     */
-    protected static int isSpelling(Change change) {
+    private static int spelling(Change change) {
         ArrayList<String> w1 = LP.tokenizeStop(change.getBefore(), false);
         ArrayList<String> w2 = LP.tokenizeStop(change.getAfter(), false);
         String before = "";
@@ -102,6 +265,10 @@ public class ChangeAnalyzer {
                 return -1;
             }
             if (misspelling && correct) {
+                // most pairs differ in more than two characters, which the lower bound decides without a diff
+                if (before.length() <= BitParallelLcs.MAX_LENGTH && BitParallelLcs.minDistance(before, after) > 2) {
+                    return 0;
+                }
                 LinkedList<Diff> diff = dmp.diff_main(before, after);
                 int dist = dmp.diff_levenshtein(diff);
                 if (dist <= 2 && dist != 0) {
@@ -131,7 +298,7 @@ public class ChangeAnalyzer {
     7. Calculate similarity score (HirstStOnge allows to calculate the score between numerous POS).
     8. Threshold of 5 (min: 0, max: 16).
     */
-    protected static int substitutionSimilarity(Change change) {
+    private static int substitution(Change change) {
         // get words
         ArrayList<String> w1 = LP.tokenizeStop(change.getBefore(), false);
         ArrayList<String> w2 = LP.tokenizeStop(change.getAfter(), false);
@@ -166,21 +333,21 @@ public class ChangeAnalyzer {
             }
 
             // modify POS-tags to match the ones of WS4J and stem words if needed
-            ArrayList<String> tmp1 = LP.stem(before, tag1);
-            ArrayList<String> tmp2 = LP.stem(after, tag2);
+            Lemma lemma1 = Lemmatizer.lemmatize(before, tag1);
+            Lemma lemma2 = Lemmatizer.lemmatize(after, tag2);
 
-            if (tmp1.get(1) == null || tmp2.get(1) == null) {
+            if (lemma1.getPos() == null || lemma2.getPos() == null) {
                 return -1;
             }
 
-            if (tmp1.get(0).equals(tmp2.get(0))) {
+            if (lemma1.getLemma().equals(lemma2.getLemma())) {
                 return -1;
             }
 
-            before = tmp1.get(0);
-            pos1 = POS.valueOf(tmp1.get(1));
-            after = tmp2.get(0);
-            pos2 = POS.valueOf(tmp2.get(1));
+            before = lemma1.getLemma();
+            pos1 = POS.valueOf(lemma1.getPos());
+            after = lemma2.getLemma();
+            pos2 = POS.valueOf(lemma2.getPos());
 
             // if no POS-tag assigned, stop because no valid decision can be made
             if (pos1 == null || pos2 == null) {
@@ -188,7 +355,9 @@ public class ChangeAnalyzer {
             }
 
             // check if words are synonyms
-            Set<String> s = JAWJAW.findSynonyms(before, pos1);
+            final String word1 = before;
+            final POS p1 = pos1;
+            Set<String> s = WordNet.query(() -> JAWJAW.findSynonyms(word1, p1));
             for (String str : s) {
                 if (str.equals(after)) {
                     return 2;
@@ -196,10 +365,10 @@ public class ChangeAnalyzer {
             }
 
             // compute similarity score
-            before = before + "#" + pos1;
-            after = after + "#" + pos2;
+            final String term1 = before + "#" + pos1;
+            final String term2 = after + "#" + pos2;
             WS4JConfiguration.getInstance().setMFS(false);
-            double sim = new HirstStOnge(db).calcRelatednessOfWords(before, after);
+            double sim = WordNet.query(() -> new HirstStOnge(WordNet.get()).calcRelatednessOfWords(term1, term2));
             if (sim >= 5) {
                 return 1;
             } else {
@@ -211,57 +380,18 @@ public class ChangeAnalyzer {
     }
 
     /*
-    Checks if change was rephrasing.
-    1. Check is sentence contains any changes that have not been previously analyzed.
-    2. Rephrasing is a property of sentences, but not more than two.
-    3. Tokenize sentences, assign POS-tags, stem if needed.
-    4. Compute binary word vectors.
-    5. Compute similarity matrix using Jiang-Conrath similarity.
-    6. Compute Fernando-Stevenson similarity score.
+    Checks if the local changes of a sentence change are of a kind other stages decide: citation, formatting,
+    spelling, numbers or symbols, or substitution. As before, the last local change decides.
+    The rephrasing, grammar and topic stages all ask this for the same sentences, so they are diffed once
+    and the result is cached.
     */
-    protected static boolean isRephrasing(Change changed_sent) {
-        ArrayList<Change> localChanges = ChangeDetector.getChanges(changed_sent.getBefore(), changed_sent.getAfter());
-        // things that can't be rephrasing
-        boolean cond1, cond2, cond3, cond4, cond5, cond6;
-        boolean other = true;
-        for (Change c : localChanges) {
-            cond1 = isCitation(c);
-            cond2 = isFormatting(c, changed_sent.getBefore(), changed_sent.getAfter());
-            cond4 = LP.isNumber(c.getBefore()) || LP.isSymbol(c.getBefore());
-            cond5 = LP.isNumber(c.getAfter()) || LP.isSymbol(c.getAfter());
-            Change cw = ChangeDetector.extendChange(c, changed_sent.getBefore(), changed_sent.getAfter(), 1);
-            cond3 = isSpelling(cw) == 1;
-            cond6 = substitutionSimilarity(cw) != -1;
-            other = cond1 || cond2 || cond3 || (cond4 && cond5) || cond6;
+    private static boolean isDecidedElsewhere(Change changed_sent) {
+        String key = changed_sent.getBefore() + '\u0000' + changed_sent.getAfter();
+        Boolean cached = decidedElsewhere.get(key);
+        if (cached != null) {
+            return cached;
         }
-        if (other) {
-            return false;
-        }
-
-        int sentCount1 = LP.numberOfSentences(changed_sent.getBefore());
-        int sentCount2 = LP.numberOfSentences(changed_sent.getAfter());
-
-        if ((sentCount1 != 1 && sentCount1 != 2) || (sentCount2 != 1 && sentCount2 != 2)) {
-            return false;
-        }
-
-        double sim = LP.semanticSimilarity(changed_sent.getBefore(), changed_sent.getAfter());
-        return sim >= 0.3;
-    }
-
-    /*
-    Checks if a change was grammar correction.
-    1. Check is sentence contains any changes that have not been previously analyzed.
-    2. Grammar is a property of a sentence.
-    3. Check grammar in both sentences.
-    4. Ignore spelling errors (they are analyzed using other method).
-    5. If both are correct, it may be rephrasing or topic changes.
-    6. If both are incorrect or correct sentence was turned into incorrect, no decision can be made.
-    7. If original version was incorrect, and modified is correct, then it was grammar change.
-    */
-    protected static int isGrammar(Change changed_sent) {
         ArrayList<Change> localChanges = ChangeDetector.getChanges(changed_sent.getBefore(), changed_sent.getAfter());
-        // things that can't be rephrasing
         boolean cond1, cond2, cond3, cond4, cond5, cond6;
         boolean other = true;
         for (Change c : localChanges) {
@@ -274,98 +404,34 @@ public class ChangeAnalyzer {
             cond6 = substitutionSimilarity(cw) != -1;
             other = cond1 || cond2 || cond3 || (cond4 && cond5) || cond6;
         }
-        if (other) {
-            return -1;
-        }
-
-        int sentCount1 = LP.numberOfSentences(changed_sent.getBefore());
-        int sentCount2 = LP.numberOfSentences(changed_sent.getAfter());
-
-        if (sentCount1 != 1 || sentCount2 != 1) {
-            return -1;
-        }
-        String check1 = LP.checkGrammar(changed_sent.getBefore());
-        String check2 = LP.checkGrammar(changed_sent.getAfter());
-        if (check1 == null || check2 == null) {
-            return -1;
-        }
-        JSONObject grammar1 = new JSONObject(check1);
-        JSONObject grammar2 = new JSONObject(check2);
-        JSONArray matches1 = (JSONArray) grammar1.get("matches");
-        JSONArray matches2 = (JSONArray) grammar2.get("matches");
-        boolean onlyMisspelling = true;
-        for (int i = 0; i < matches1.length(); ++i) {
-            JSONObject match = matches1.getJSONObject(i);
-            JSONObject rule = match.getJSONObject("rule");
-            String issueType = rule.getString("issueType");
-            if (!issueType.equals("misspelling")) {
-                onlyMisspelling = false;
-            }
-        }
-        if (onlyMisspelling) {
-            return -1;
-        }
-        boolean correct_before = matches1.length() == 0 || onlyMisspelling;
+        decidedElsewhere.put(key, other);
+        return other;
+    }
 
-        for (int i = 0; i < matches2.length(); ++i) {
-            JSONObject match = matches2.getJSONObject(i);
-            JSONObject rule = match.getJSONObject("rule");
-            String issueType = rule.getString("issueType");
+    // true, if a response of LanguageTool reports an issue other than a misspelling.
+    private static boolean hasIssue(String response) {
+        JSONArray matches = (JSONArray) new JSONObject(response).get("matches");
+        for (int i = 0; i < matches.length(); ++i) {
+            String issueType = matches.getJSONObject(i).getJSONObject("rule").getString("issueType");
             if (!issueType.equals("misspelling")) {
-                onlyMisspelling = false;
+                return true;
             }
         }
-        if (onlyMisspelling) {
-            return -1;
-        }
-        boolean correct_after = matches2.length() == 0 || onlyMisspelling;
-        if (!correct_before && !correct_after) {
-            return 0;
-        } else if (correct_before && !correct_after) {
-            return 0;
-        } else if (correct_before && correct_after) {
-            return -1;
-        } else {
-            return 1;
-        }
+        return false;
     }
 
     /*
-    Checks how a change influenced the topic of a text.
-    1. Performed if sentences are not grammar correction of paraphrases.
-    2. There should be at least one sentence.
-    3. Extend change to its context (here neighbouring paragraphs).
-    4. Compute Fernando and Stevenson similarity score between text fragments before and after changes.
+    Waits for a response of LanguageTool not longer than the budget allows, null if there is none.
     */
-    protected static int relatedTopics(Change changed_sent, String text) {
-        // things that can't be rephrasing
-        boolean cond1, cond2;
-        cond1 = isRephrasing(changed_sent);
-        cond2 = isGrammar(changed_sent) == 1;
-        boolean other = cond1 || cond2;
-        if (other) {
-            return -1;
+    private static String await(CompletableFuture<String> request, Budget budget) {
+        try {
+            return request.get(Math.max(1, budget.remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
         }
-
-        int sentCount1 = LP.numberOfSentences(changed_sent.getBefore());
-        int sentCount2 = LP.numberOfSentences(changed_sent.getAfter());
-
-        // too short of a change to be something important
-        if (sentCount1 == 0 && sentCount2 == 0) {
-            return -1;
-        }
-
-        // pick text fragments that need to be compared
-        String before = "", after = "";
-        int[] para = LP.nearestParagraph(text, changed_sent.getPos1(),
-                changed_sent.getPos1() + changed_sent.getBefore().length());
-        before = text.substring(para[0], para[1]);
-        after = text.substring(para[0], changed_sent.getPos1()) + changed_sent.getAfter()
-                + text.substring(changed_sent.getPos1() + changed_sent.getBefore().length(), para[1]);
-
-        double score = LP.semanticSimilarity(before, after);
-        return score >= 0.5 ? 0 : 1;
     }
-    // protected methods
-
-}
\ No newline at end of file
+    // private methods
+}
@@ -1,22 +1,164 @@
 package ps.changeclassifier;
 
 import java.util.ArrayList;
-import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import ps.models.Change;
 import ps.models.ChangeTag;
 import ps.models.ChangeTag.Tag;
 import ps.utils.LP;
+import ps.utils.TermVectorIndex;
+import ps.utils.VirtualThreads;
 
 /**
  * Class that classifies changes in a plain-text document.
  * Showcases the algorithm proposed in the thesis.
  */
 public class ChangeClassifier {
+    // Extensions of a change, to which a tag can be assigned
+    private static final int LEVEL_CHANGE = 0;
+    private static final int LEVEL_CITATION = 1;
+    private static final int LEVEL_WORD = 2;
+    private static final int LEVEL_SENTENCE = 3;
+    private static final int LEVEL_OTHER = 4;
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * System property enabling classification in virtual threads, see {@link #setVirtualThreads(boolean)}.
+     */
+    public static final String VIRTUAL_THREADS = "nutcracker.virtualThreads";
+
+    /**
+     * System property enabling sentence-aligned classification, see {@link #setSentenceAlignment(boolean)}.
+     */
+    public static final String SENTENCE_ALIGNMENT = "nutcracker.sentenceAlignment";
+
+    /**
+     * System property enabling the pre-classifier, see {@link #setPreClassifier(PreClassifier)}.
+     */
+    public static final String PRE_CLASSIFIER = "nutcracker.preclassifier";
+
+    // Print progress of classification
+    private static volatile boolean verbose = true;
+    // Time budget per document and per change in milliseconds, unlimited if not positive
+    private static volatile long documentMillis = 0;
+    private static volatile long changeMillis = 0;
+    // Classify identical changes only once
+    private static volatile boolean deduplication = true;
+    // Classify changes concurrently in virtual threads, if the JDK provides them
+    private static volatile boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS);
+    // Group changes by aligned sentences and run sentence-level stages once per group
+    private static volatile boolean sentenceAlignment = Boolean.getBoolean(SENTENCE_ALIGNMENT);
+    // Tags changes from cheap features ahead of the stages, null if disabled
+    private static volatile PreClassifier preClassifier = Boolean.getBoolean(PRE_CLASSIFIER)
+            ? PreClassifier.fromProperties() : null;
+    // Stages of classification
+    private static volatile ClassificationPipeline pipeline = ClassificationPipeline.getDefault();
+
     private ChangeClassifier() {
     }
 
     // public methods
+    /**
+     * @param verbose true, if progress of classification is to be printed out.
+     */
+    public static void setVerbose(boolean verbose) {
+        ChangeClassifier.verbose = verbose;
+    }
+
+    /**
+     * @return true, if progress of classification is printed out.
+     */
+    public static boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * @return pipeline of stages used to classify changes.
+     */
+    public static ClassificationPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return cache of spelling and substitution results per word pair, shared between documents.
+     */
+    public static WordPairCache getWordPairCache() {
+        return ChangeAnalyzer.wordPairs;
+    }
+
+    /**
+     * Replaces the pipeline of stages used to classify changes.
+     */
+    public static void setPipeline(ClassificationPipeline pipeline) {
+        ChangeClassifier.pipeline = pipeline;
+    }
+
+    /**
+     * Enables or disables deduplication. If enabled, changes with identical contexts are classified once and
+     * the tag is copied to every occurrence. Disable it for custom stages that read more than the extensions
+     * of a change to its citation, word, sentence and paragraph. Tags degraded by the time budget are not copied;
+     * the other occurrences are classified with a budget of their own.
+     */
+    public static void setDeduplication(boolean deduplication) {
+        ChangeClassifier.deduplication = deduplication;
+    }
+
+    /**
+     * Enables or disables classification in virtual threads. If enabled and the JDK provides virtual threads,
+     * each change (or group of identical changes) is classified in its own virtual thread; requests to
+     * LanguageTool are still bounded by its client. Otherwise changes are classified one after another.
+     */
+    public static void setVirtualThreads(boolean virtualThreads) {
+        ChangeClassifier.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Enables or disables sentence-aligned classification. If enabled, the sentences of both versions are aligned
+     * and the changes within a pair of aligned sentences are classified together: the pair replaces the extension
+     * of each change to whole sentences, and rephrasing, grammar and topic are analyzed once per pair instead of
+     * once per change. Changes that span several sentences merge their pairs. Takes precedence over
+     * deduplication.
+     */
+    public static void setSentenceAlignment(boolean sentenceAlignment) {
+        ChangeClassifier.sentenceAlignment = sentenceAlignment;
+    }
+
+    /**
+     * @return pre-classifier run ahead of the stages, null if disabled.
+     */
+    public static PreClassifier getPreClassifier() {
+        return preClassifier;
+    }
+
+    /**
+     * Enables the pre-classifier, or disables it if null. If enabled, changes whose cheap features decide their
+     * tag with enough confidence are tagged without running the stages; all other changes fall through to the
+     * stages. The tags are an approximation of those of the stages, see {@link PreClassifier}.
+     */
+    public static void setPreClassifier(PreClassifier preClassifier) {
+        ChangeClassifier.preClassifier = preClassifier;
+    }
+
+    /**
+     * Sets the time budget used by {@link #getClassification(ArrayList, String, String)}.
+     * <br>
+     * @param documentMillis time for all changes of a document, unlimited if not positive.
+     * @param changeMillis time for each change, unlimited if not positive.
+     */
+    public static void setBudget(long documentMillis, long changeMillis) {
+        ChangeClassifier.documentMillis = documentMillis;
+        ChangeClassifier.changeMillis = changeMillis;
+    }
+
     /**
      * @param changes list of changes to be analyzed.
      * @param text1 initial version of the document.
@@ -24,92 +166,360 @@ public class ChangeClassifier {
      * @return list of changes with tags describing the meaning of a change.
      */
     public static ArrayList<ChangeTag> getClassification(ArrayList<Change> changes, String text1, String text2) {
+        return getClassification(changes, text1, text2, Budget.of(documentMillis, changeMillis));
+    }
+
+    /**
+     * @param changes list of changes to be analyzed.
+     * @param text1 initial version of the document.
+     * @param text2 modified version of the document.
+     * @param budget time budget for the document.
+     * @return list of changes with tags describing the meaning of a change.
+     */
+    public static ArrayList<ChangeTag> getClassification(ArrayList<Change> changes, String text1, String text2,
+            Budget budget) {
         ArrayList<ChangeTag> ch_class = new ArrayList<ChangeTag>(changes.size());
-        for (int i = 0; i < changes.size(); ++i) {
-            ChangeTag ct = ChangeClassifier.classifyChange(changes.get(i), text1, text2);
-            ch_class.add(ct);
-            System.out.println((i + 1) + "/" + changes.size() + ": " + ct);
-        }
+        classify(changes, text1, text2, budget, ct -> ch_class.add(ct));
         return ch_class;
     }
+
+    /**
+     * Passes each classified change to the consumer, using the time budget set by
+     * {@link #setBudget(long, long)}.
+     * <br>
+     * @param changes list of changes to be analyzed.
+     * @param text1 initial version of the document.
+     * @param text2 modified version of the document.
+     * @param consumer receiver of the classified changes, in the order of the list.
+     */
+    public static void classify(ArrayList<Change> changes, String text1, String text2,
+            Consumer<ChangeTag> consumer) {
+        classify(changes, text1, text2, Budget.of(documentMillis, changeMillis), consumer);
+    }
+
+    /**
+     * Passes each classified change together with the change as detected to the consumer, using the time budget
+     * set by {@link #setBudget(long, long)}.
+     * <br>
+     * @param changes list of changes to be analyzed.
+     * @param text1 initial version of the document.
+     * @param text2 modified version of the document.
+     * @param consumer receiver of each change of the list and its tag, in the order of the list.
+     */
+    public static void classify(ArrayList<Change> changes, String text1, String text2,
+            BiConsumer<Change, ChangeTag> consumer) {
+        classify(changes, text1, text2, Budget.of(documentMillis, changeMillis), consumer);
+    }
+
+    /**
+     * Passes each classified change to the consumer as soon as it and all changes before it are classified, so
+     * the consumer receives them in the order of the list.
+     * <br>
+     * @param changes list of changes to be analyzed.
+     * @param text1 initial version of the document.
+     * @param text2 modified version of the document.
+     * @param budget time budget for the document.
+     * @param consumer receiver of the classified changes.
+     */
+    public static void classify(ArrayList<Change> changes, String text1, String text2, Budget budget,
+            Consumer<ChangeTag> consumer) {
+        classify(changes, text1, text2, budget, (change, ct) -> consumer.accept(ct));
+    }
+
+    /**
+     * Passes each classified change together with the change as detected to the consumer as soon as it and all
+     * changes before it are classified. The tag may refer to an extension of the change, e.g. to its word or
+     * sentence, whereas the change as detected covers only the edited characters.
+     * <br>
+     * @param changes list of changes to be analyzed.
+     * @param text1 initial version of the document.
+     * @param text2 modified version of the document.
+     * @param budget time budget for the document.
+     * @param consumer receiver of each change of the list and its tag, e.g. a {@link ps.utils.ChangeTagWriter}.
+     */
+    public static void classify(ArrayList<Change> changes, String text1, String text2, Budget budget,
+            BiConsumer<Change, ChangeTag> consumer) {
+        Emitter emitter = new Emitter(changes, consumer);
+        // paragraph term vectors are shared by all changes of the document
+        TermVectorIndex termIndex = new TermVectorIndex(text1);
+        // null if changes are to be classified sequentially
+        ExecutorService executor = virtualThreads ? VirtualThreads.newExecutor() : null;
+        try {
+            // with normalization, changes of whitespace only are formatting, the stages are not run for them
+            boolean normalization = ChangeDetector.isNormalization();
+            ArrayList<Integer> indices = new ArrayList<>(changes.size());
+            for (int i = 0; i < changes.size(); ++i) {
+                if (normalization && ChangeDetector.isWhitespaceOnly(changes.get(i))) {
+                    emitter.set(i, new ChangeTag(changes.get(i), Tag.FORMATTING));
+                } else {
+                    indices.add(i);
+                }
+            }
+            if (sentenceAlignment) {
+                classifyAligned(changes, indices, text1, text2, budget, termIndex, emitter, executor);
+            } else if (deduplication) {
+                classifyDeduplicated(changes, indices, text1, text2, budget, termIndex, emitter, executor);
+            } else {
+                ArrayList<Runnable> tasks = new ArrayList<>(indices.size());
+                for (int index : indices) {
+                    tasks.add(() -> emitter.set(index, ChangeClassifier.classifyChange(changes.get(index), text1,
+                            text2, budget.forChange(), termIndex)));
+                }
+                runAll(tasks, executor);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
     // public methods
 
     // private methods
     // Assigns each change a tag that describes change's meaning.
-    private static ChangeTag classifyChange(Change change, String text1, String text2) {
-        Change changed_citation = ChangeDetector.extendChange(change, text1, text2, 0);
-        boolean citation = ChangeAnalyzer.isCitation(changed_citation);
-        if (citation) {
-            return new ChangeTag(changed_citation, Tag.CITATION);
-        }
-
-        boolean formatting = ChangeAnalyzer.isFormatting(changed_citation, text1, text2);
-        if (formatting) {
-            return new ChangeTag(changed_citation, Tag.FORMATTING);
-        }
-
-        Change changed_word = ChangeDetector.extendChange(changed_citation, text1, text2, 1);
-        int spelling = ChangeAnalyzer.isSpelling(changed_word);
-        switch (spelling) {
-        case -1:
-            return new ChangeTag(changed_word, Tag.UNDEFINED);
-        case 0:
-            break;
-        case 1:
-            return new ChangeTag(changed_word, Tag.SPELLING);
-        }
-
-        int sub_sim = ChangeAnalyzer.substitutionSimilarity(changed_word);
-        switch (sub_sim) {
-        case -1:
-            break;
-        case 0:
-            return new ChangeTag(changed_word, Tag.UNRELATED_TERM);
-        case 1:
-            return new ChangeTag(changed_word, Tag.RELATED_TERM);
-        case 2:
-            return new ChangeTag(changed_word, Tag.INTERCHANGEABLE);
-        }
-
-        Change changed_sent = ChangeDetector.extendChange(changed_word, text1, text2, 2);
-
-        ArrayList<String> w1 = LP.tokenizeStop(changed_word.getBefore(), false);
-        ArrayList<String> w2 = LP.tokenizeStop(changed_word.getAfter(), false);
-        w1 = w1.stream().filter(w -> !LP.isNumber(w)).collect(Collectors.toCollection(ArrayList::new));
-        w2 = w2.stream().filter(w -> !LP.isNumber(w)).collect(Collectors.toCollection(ArrayList::new));
-        if (w1.size() > 1 || w2.size() > 1) {
-            boolean rephrasing = ChangeAnalyzer.isRephrasing(changed_sent);
-            if (rephrasing) {
-                return new ChangeTag(changed_sent, Tag.REPHRASING);
+    // Expensive analyses are skipped once the budget is used up.
+    private static ChangeTag classifyChange(Change change, String text1, String text2, Budget budget,
+            TermVectorIndex index) {
+        ClassificationContext context = new ClassificationContext(change, text1, text2, budget);
+        context.setTermIndex(index);
+        return classifyContext(context);
+    }
+
+    // Runs the pre-classifier, if enabled, and the stages unless it tagged the change.
+    private static ChangeTag classifyContext(ClassificationContext context) {
+        PreClassifier pre = preClassifier;
+        return pre == null ? pipeline.classify(context) : pre.classify(context, pipeline);
+    }
+
+    /*
+    Classifies each group of identical changes once, out of the changes at the given indices.
+    1. Group changes by their citation and word extensions and the characters around them.
+    2. Classify the first change of a group.
+    3. If the tag was decided on citation or word level, copy it to all changes of the group.
+    4. Otherwise split the group by sentence extensions (and paragraphs, if topic may be analyzed)
+       and classify the first change of each subgroup.
+    */
+    private static void classifyDeduplicated(ArrayList<Change> changes, ArrayList<Integer> indices, String text1,
+            String text2, Budget budget, TermVectorIndex termIndex, Emitter emitter, ExecutorService executor) {
+        ClassificationContext[] contexts = new ClassificationContext[changes.size()];
+        LinkedHashMap<String, ArrayList<Integer>> groups = new LinkedHashMap<>();
+        for (int i : indices) {
+            contexts[i] = new ClassificationContext(changes.get(i), text1, text2, budget);
+            contexts[i].setTermIndex(termIndex);
+            groups.computeIfAbsent(wordKey(contexts[i]), k -> new ArrayList<>()).add(i);
+        }
+
+        ArrayList<Runnable> tasks = new ArrayList<>(groups.size());
+        for (ArrayList<Integer> group : groups.values()) {
+            tasks.add(() -> classifyGroup(group, contexts, budget, emitter));
+        }
+        runAll(tasks, executor);
+    }
+
+    // Classifies the changes at the given indices per pair of aligned sentences, one pair after another.
+    private static void classifyAligned(ArrayList<Change> changes, ArrayList<Integer> indices, String text1,
+            String text2, Budget budget, TermVectorIndex termIndex, Emitter emitter, ExecutorService executor) {
+        ArrayList<SentencePair> pairs = SentenceAligner.group(changes, indices, text1, text2);
+        ArrayList<Runnable> tasks = new ArrayList<>(pairs.size());
+        for (SentencePair pair : pairs) {
+            tasks.add(() -> {
+                for (int index : pair.getIndices()) {
+                    ClassificationContext context = new ClassificationContext(changes.get(index), text1, text2,
+                            budget.forChange());
+                    context.setTermIndex(termIndex);
+                    context.setSentencePair(pair);
+                    emitter.set(index, classifyContext(context));
+                }
+            });
+        }
+        runAll(tasks, executor);
+    }
+
+    // Classifies a group of changes with identical citation and word extensions.
+    private static void classifyGroup(ArrayList<Integer> group, ClassificationContext[] contexts, Budget budget,
+            Emitter emitter) {
+        int first = group.get(0);
+        contexts[first].setBudget(budget.forChange());
+        ChangeTag tag = classifyContext(contexts[first]);
+        emitter.set(first, tag);
+        // degraded tags are not shared, the other changes get a budget of their own
+        int level = tag.isDegraded() ? LEVEL_OTHER : levelOf(contexts[first], tag);
+        if (level == LEVEL_CITATION || level == LEVEL_WORD) {
+            for (int i = 1; i < group.size(); ++i) {
+                emitter.set(group.get(i), copy(tag, contexts[group.get(i)], level));
+                contexts[group.get(i)] = null;
+            }
+            contexts[first] = null;
+            return;
+        }
+
+        // tags decided on sentence level, by sentence key
+        HashMap<String, ChangeTag> decided = new HashMap<>();
+        HashMap<String, Integer> levels = new HashMap<>();
+        if (level != LEVEL_OTHER) {
+            String key = sentenceKey(contexts[first]);
+            decided.put(key, tag);
+            levels.put(key, level);
+        }
+        contexts[first] = null;
+        for (int i = 1; i < group.size(); ++i) {
+            int index = group.get(i);
+            String key = sentenceKey(contexts[index]);
+            ChangeTag known = decided.get(key);
+            if (known != null) {
+                emitter.set(index, copy(known, contexts[index], levels.get(key)));
+                contexts[index] = null;
+                continue;
             }
+            contexts[index].setBudget(budget.forChange());
+            tag = classifyContext(contexts[index]);
+            emitter.set(index, tag);
+            int found = tag.isDegraded() ? LEVEL_OTHER : levelOf(contexts[index], tag);
+            if (found != LEVEL_OTHER) {
+                decided.put(key, tag);
+                levels.put(key, found);
+            }
+            contexts[index] = null;
+        }
+    }
+
+    // Key of everything the stages up to word substitution look at.
+    private static String wordKey(ClassificationContext context) {
+        Change citation = context.getCitationChange();
+        Change word = context.getWordChange();
+        String text1 = context.getText1();
+        String text2 = context.getText2();
+        return new StringBuilder().append(citation.getBefore()).append(SEPARATOR).append(citation.getAfter())
+                .append(SEPARATOR).append(charAt(text1, citation.getPos1() - 1))
+                .append(charAt(text1, citation.getPos1() + citation.getBefore().length()))
+                .append(charAt(text2, citation.getPos2() - 1))
+                .append(charAt(text2, citation.getPos2() + citation.getAfter().length()))
+                .append(citation.getPos1() == 0).append(citation.getPos2() == 0)
+                .append(citation.getPos1() + citation.getBefore().length() == text1.length())
+                .append(citation.getPos2() + citation.getAfter().length() == text2.length()).append(SEPARATOR)
+                .append(word.getBefore()).append(SEPARATOR).append(word.getAfter()).toString();
+    }
+
+    // Key of everything the sentence stages look at.
+    private static String sentenceKey(ClassificationContext context) {
+        Change sentence = context.getSentenceChange();
+        StringBuilder key = new StringBuilder().append(sentence.getBefore()).append(SEPARATOR)
+                .append(sentence.getAfter());
+        int[] counts = context.getWordCounts();
+        if (counts[0] > 2 || counts[1] > 2) {
+            // topic similarity compares the surrounding paragraph of the original version
+            String text1 = context.getText1();
+            int end = sentence.getPos1() + sentence.getBefore().length();
+            int[] para = LP.nearestParagraph(text1, sentence.getPos1(), end);
+            key.append(SEPARATOR).append(text1, para[0], sentence.getPos1()).append(SEPARATOR).append(text1,
+                    end, para[1]);
+        }
+        return key.toString();
+    }
+
+    // Extension of the change, whose tag was assigned.
+    static int levelOf(ClassificationContext context, ChangeTag tag) {
+        Change change = tag.getChange();
+        if (change == context.getChange() && tag.getTag() == Tag.UNDEFINED) {
+            // no stage assigned a tag, which depends on the sentence stages
+            return LEVEL_CHANGE;
+        }
+        if (change == context.getCitationChange()) {
+            return LEVEL_CITATION;
+        }
+        if (change == context.getWordChange()) {
+            return LEVEL_WORD;
+        }
+        if (change == context.getSentenceChange()) {
+            return LEVEL_SENTENCE;
+        }
+        return LEVEL_OTHER;
+    }
+
+    // Copy of a tag, which is not degraded, for another occurrence of the same change.
+    private static ChangeTag copy(ChangeTag tag, ClassificationContext context, int level) {
+        return new ChangeTag(extensionOf(context, level), tag.getTag());
+    }
+
+    // Extension of the change at the given level, the change itself for other levels.
+    static Change extensionOf(ClassificationContext context, int level) {
+        switch (level) {
+        case LEVEL_CITATION:
+            return context.getCitationChange();
+        case LEVEL_WORD:
+            return context.getWordChange();
+        case LEVEL_SENTENCE:
+            return context.getSentenceChange();
+        default:
+            return context.getChange();
+        }
+    }
+
+    // Runs tasks one after another or, if an executor is given, concurrently, waiting for all of them.
+    private static void runAll(List<Runnable> tasks, ExecutorService executor) {
+        if (executor == null) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+        ArrayList<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Classification was interrupted", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static char charAt(String text, int pos) {
+        return pos >= 0 && pos < text.length() ? text.charAt(pos) : SEPARATOR;
+    }
+
+    /*
+    Passes tags to the consumer in the order of the changes, also when they are classified concurrently.
+    Tags assigned ahead of the next expected change are held back until the gap is filled. The consumer may write,
+    so the lock is a ReentrantLock, which a virtual thread blocked in the consumer does not pin its carrier with.
+    */
+    private static class Emitter {
+        private final ArrayList<Change> changes;
+        private final ChangeTag[] pending;
+        private final BiConsumer<Change, ChangeTag> consumer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int next = 0;
+
+        Emitter(ArrayList<Change> changes, BiConsumer<Change, ChangeTag> consumer) {
+            this.changes = changes;
+            this.pending = new ChangeTag[changes.size()];
+            this.consumer = consumer;
         }
 
-        int grammar = ChangeAnalyzer.isGrammar(changed_sent);
-        switch (grammar) {
-        case -1:
-            break;
-        case 0:
-            return new ChangeTag(changed_sent, Tag.UNDEFINED);
-        case 1:
-            return new ChangeTag(changed_sent, Tag.GRAMMAR);
-        }
-
-        w1 = LP.tokenizeStop(changed_word.getBefore(), false);
-        w2 = LP.tokenizeStop(changed_word.getAfter(), false);
-        w1 = w1.stream().filter(w -> !LP.isNumber(w)).collect(Collectors.toCollection(ArrayList::new));
-        w2 = w2.stream().filter(w -> !LP.isNumber(w)).collect(Collectors.toCollection(ArrayList::new));
-        if (w1.size() > 2 || w2.size() > 2) {
-            int topic_sim = ChangeAnalyzer.relatedTopics(changed_sent, text1);
-            switch (topic_sim) {
-            case -1:
-                break;
-            case 0:
-                return new ChangeTag(changed_sent, Tag.MINOR_TOPIC_CHANGE);
-            case 1:
-                return new ChangeTag(changed_sent, Tag.MAJOR_TOPIC_CHANGE);
+        void set(int index, ChangeTag ct) {
+            this.lock.lock();
+            try {
+                this.pending[index] = ct;
+                while (this.next < this.pending.length && this.pending[this.next] != null) {
+                    ChangeTag out = this.pending[this.next];
+                    this.pending[this.next] = null;
+                    ++this.next;
+                    if (verbose) {
+                        System.out.println(this.next + "/" + this.pending.length + ": " + out);
+                    }
+                    this.consumer.accept(this.changes.get(this.next - 1), out);
+                }
+            } finally {
+                this.lock.unlock();
             }
         }
-        return new ChangeTag(change, Tag.UNDEFINED);
     }
     // private methods
 }
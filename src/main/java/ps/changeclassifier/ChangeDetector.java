@@ -10,6 +10,7 @@ import name.fraser.neil.plaintext.diff_match_patch.Operation;
 import ps.models.Change;
 import ps.models.PositionedDiff;
 import ps.utils.LP;
+import ps.utils.NormalizedText;
 import ps.utils.RegEx;
 
 /**
@@ -17,7 +18,14 @@ import ps.utils.RegEx;
  * Uses google-diff-match-patch library (@see https://github.com/GerHobbelt/google-diff-match-patch for more information)
  */
 public class ChangeDetector {
+    /**
+     * System property enabling whitespace normalization of documents, see {@link #setNormalization(boolean)}.
+     */
+    public static final String NORMALIZATION = "nutcracker.normalizeWhitespace";
+
     private static diff_match_patch dmp = new diff_match_patch();
+    // Diff documents after collapsing whitespace, see getDocumentDiffs
+    private static volatile boolean normalization = Boolean.getBoolean(NORMALIZATION);
 
     private ChangeDetector() {
     }
@@ -35,12 +43,149 @@ public class ChangeDetector {
      * @return A list of changes with their positions in text before and after changes made.
      */
     public static ArrayList<Change> getChanges(String text1, String text2) {
+        return getChanges(getDiffs(text1, text2), text1, text2);
+    }
+
+    /**
+     * <ol>
+     * <li> Calculate the shortest edit script. </li>
+     * <li> Cleanup the script to group some diffs. </li>
+     * <li> Assign diffs their positions in text. </li>
+     * </ol>
+     * <br>
+     * @param text1 Text before change.
+     * @param text2 Text after change.
+     * @return Edit script with positions of diffs in text before and after changes made.
+     */
+    public static ArrayList<PositionedDiff> getDiffs(String text1, String text2) {
         LinkedList<Diff> deltas = dmp.diff_main(text1, text2);
         dmp.diff_cleanupSemantic(deltas);
         Diff[] diffs = deltas.toArray(new Diff[deltas.size()]);
-        ArrayList<PositionedDiff> pos_diffs = getDiffPositions(diffs);
-        ArrayList<Change> before_after = getChangedText(pos_diffs, text1, text2);
-        return before_after;
+        return getDiffPositions(diffs);
+    }
+
+    /**
+     * Enables or disables whitespace normalization of documents. If enabled,
+     * {@link #getDocumentDiffs(String, String)} compares the documents as
+     * {@link #getNormalizedDiffs(String, String)} does, otherwise as {@link #getDiffs(String, String)} does.
+     * Meant for versions that were re-exported with different line wrapping or spacing: the edit script then
+     * aligns sentences instead of lines, so the changes of content may be cut differently.
+     */
+    public static void setNormalization(boolean normalization) {
+        ChangeDetector.normalization = normalization;
+    }
+
+    /**
+     * @return true, if whitespace normalization of documents is enabled.
+     */
+    public static boolean isNormalization() {
+        return normalization;
+    }
+
+    /**
+     * Edit script of two versions of a document, with whitespace normalization if enabled.
+     * <br>
+     * @param text1 Text before change.
+     * @param text2 Text after change.
+     * @return Edit script with positions of diffs in text before and after changes made.
+     */
+    public static ArrayList<PositionedDiff> getDocumentDiffs(String text1, String text2) {
+        return normalization ? getNormalizedDiffs(text1, text2) : getDiffs(text1, text2);
+    }
+
+    /**
+     * Changes between two versions of a document, with whitespace normalization if enabled.
+     * <br>
+     * @param text1 Text before change.
+     * @param text2 Text after change.
+     * @return A list of changes with their positions in text before and after changes made.
+     */
+    public static ArrayList<Change> getDocumentChanges(String text1, String text2) {
+        return getChanges(getDocumentDiffs(text1, text2), text1, text2);
+    }
+
+    /**
+     * <ol>
+     * <li> Collapse every run of whitespace in both texts into a single character. </li>
+     * <li> Calculate and cleanup the shortest edit script of the normalized texts. </li>
+     * <li> Map the script back to the original texts. Runs of whitespace that differ within equal parts become
+     * separate diffs, which consist of whitespace only. </li>
+     * <li> Assign diffs their positions in text. </li>
+     * </ol>
+     * Re-wrapped lines and changed spacing thus neither fragment nor extend the changes of content.
+     * <br>
+     * @param text1 Text before change.
+     * @param text2 Text after change.
+     * @return Edit script with positions of diffs in text before and after changes made.
+     */
+    public static ArrayList<PositionedDiff> getNormalizedDiffs(String text1, String text2) {
+        NormalizedText n1 = new NormalizedText(text1);
+        NormalizedText n2 = new NormalizedText(text2);
+        LinkedList<Diff> deltas = dmp.diff_main(n1.getText(), n2.getText());
+        dmp.diff_cleanupSemantic(deltas);
+
+        ArrayList<Diff> diffs = new ArrayList<>(deltas.size());
+        int it1 = 0, it2 = 0;
+        for (Diff d : deltas) {
+            int length = d.text.length();
+            if (d.operation == Operation.DELETE) {
+                diffs.add(new Diff(Operation.DELETE,
+                        text1.substring(n1.toOriginal(it1), n1.toOriginal(it1 + length))));
+                it1 += length;
+            } else if (d.operation == Operation.INSERT) {
+                diffs.add(new Diff(Operation.INSERT,
+                        text2.substring(n2.toOriginal(it2), n2.toOriginal(it2 + length))));
+                it2 += length;
+            } else {
+                splitEqual(n1, it1, n2, it2, length, diffs);
+                it1 += length;
+                it2 += length;
+            }
+        }
+        return getDiffPositions(diffs.toArray(new Diff[diffs.size()]));
+    }
+
+    /**
+     * @param change A change.
+     * @return true, if the change replaces whitespace with other whitespace, as found by
+     * {@link #getNormalizedDiffs(String, String)}.
+     */
+    public static boolean isWhitespaceOnly(Change change) {
+        return isWhitespace(change.getBefore()) && isWhitespace(change.getAfter());
+    }
+
+    /**
+     * @param diffs Edit script with positions, as computed by {@link #getDiffs(String, String)}.
+     * @param text1 Text before change.
+     * @param text2 Text after change.
+     * @return A list of changes with their positions in text before and after changes made.
+     */
+    public static ArrayList<Change> getChanges(ArrayList<PositionedDiff> diffs, String text1, String text2) {
+        return getChangedText(diffs, text1, text2);
+    }
+
+    /**
+     * Maps a position in the original version to the modified version.
+     * <br>
+     * @param changes Changes between both versions, ordered by position.
+     * @param pos Position in the original version.
+     * @return Position in the modified version or -1, if text at this position was replaced or removed.
+     */
+    public static int mapPosition(ArrayList<Change> changes, int pos) {
+        if (pos < 0) {
+            return -1;
+        }
+        int shift = 0;
+        for (Change c : changes) {
+            if (c.getPos1() > pos) {
+                break;
+            }
+            if (pos < c.getPos1() + c.getBefore().length()) {
+                return -1;
+            }
+            shift = c.getPos2() + c.getAfter().length() - c.getPos1() - c.getBefore().length();
+        }
+        return pos + shift;
     }
     // public methods
 
@@ -100,6 +245,48 @@ public class ChangeDetector {
     // protected methods
 
     // private methods
+    /*
+    Maps an equal part of the normalized texts back to the original texts.
+    Characters other than whitespace are identical, runs of whitespace may differ: those become a deletion and an
+    insertion, the rest stays equal.
+    */
+    private static void splitEqual(NormalizedText n1, int it1, NormalizedText n2, int it2, int length,
+            ArrayList<Diff> diffs) {
+        String text1 = n1.getOriginal();
+        int start = n1.toOriginal(it1);
+        for (int i = 0; i < length; ++i) {
+            if (n1.isRun(it1 + i)) {
+                String run1 = n1.originalAt(it1 + i);
+                String run2 = n2.originalAt(it2 + i);
+                if (!run1.equals(run2)) {
+                    int at = n1.toOriginal(it1 + i);
+                    if (at > start) {
+                        diffs.add(new Diff(Operation.EQUAL, text1.substring(start, at)));
+                    }
+                    diffs.add(new Diff(Operation.DELETE, run1));
+                    diffs.add(new Diff(Operation.INSERT, run2));
+                    start = n1.toOriginal(it1 + i + 1);
+                }
+            }
+        }
+        int end = n1.toOriginal(it1 + length);
+        if (end > start) {
+            diffs.add(new Diff(Operation.EQUAL, text1.substring(start, end)));
+        }
+    }
+
+    private static boolean isWhitespace(String str) {
+        if (str.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); ++i) {
+            if (!NormalizedText.isSpace(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Assigns each diff its positions in text before and after the changes took place.
     private static ArrayList<PositionedDiff> getDiffPositions(Diff[] diffs) {
         ArrayList<PositionedDiff> res = new ArrayList<PositionedDiff>(diffs.length);
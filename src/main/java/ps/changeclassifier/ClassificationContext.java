@@ -0,0 +1,177 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+
+import ps.models.Change;
+import ps.utils.LP;
+import ps.utils.TermVectorIndex;
+
+/**
+ * State shared by the stages classifying one change.
+ * <p>
+ * Extensions of the change to its citation, word and sentence are computed on first use and reused by all
+ * stages that need them.
+ */
+public class ClassificationContext {
+    private final Change change;
+    private final String text1;
+    private final String text2;
+    private Budget budget;
+
+    private Change citationChange;
+    private Change wordChange;
+    private Change sentenceChange;
+    private int[] wordCounts;
+    private TermVectorIndex termIndex;
+    private SentencePair sentencePair;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param change Change to be classified.
+     * @param text1 Original version of the document.
+     * @param text2 Modified version of the document.
+     * @param budget Time budget for the change.
+     */
+    public ClassificationContext(Change change, String text1, String text2, Budget budget) {
+        this.change = change;
+        this.text1 = text1;
+        this.text2 = text2;
+        this.budget = budget;
+    }
+
+    /**
+     * @return Change as detected.
+     */
+    public Change getChange() {
+        return this.change;
+    }
+
+    /**
+     * @return Original version of the document.
+     */
+    public String getText1() {
+        return this.text1;
+    }
+
+    /**
+     * @return Modified version of the document.
+     */
+    public String getText2() {
+        return this.text2;
+    }
+
+    /**
+     * @return Time budget for the change.
+     */
+    public Budget getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * @return Change extended to the in-text citation it is part of, or the change itself.
+     */
+    public Change getCitationChange() {
+        if (this.citationChange == null) {
+            this.citationChange = ChangeDetector.extendChange(this.change, this.text1, this.text2, 0);
+        }
+        return this.citationChange;
+    }
+
+    /**
+     * @return Change extended to whole words.
+     */
+    public Change getWordChange() {
+        if (this.wordChange == null) {
+            this.wordChange = ChangeDetector.extendChange(getCitationChange(), this.text1, this.text2, 1);
+        }
+        return this.wordChange;
+    }
+
+    /**
+     * @return Change extended to whole sentences.
+     */
+    public Change getSentenceChange() {
+        if (this.sentenceChange == null) {
+            this.sentenceChange = ChangeDetector.extendChange(getWordChange(), this.text1, this.text2, 2);
+        }
+        return this.sentenceChange;
+    }
+
+    /**
+     * @return Number of words, that are not numbers, before and after the change extended to whole words.
+     */
+    public int[] getWordCounts() {
+        if (this.wordCounts == null) {
+            this.wordCounts = new int[] { countWords(getWordChange().getBefore()),
+                    countWords(getWordChange().getAfter()) };
+        }
+        return this.wordCounts;
+    }
+
+    /**
+     * @return Term vectors of the paragraphs of the original version, shared with other changes if set.
+     */
+    public TermVectorIndex getTermIndex() {
+        if (this.termIndex == null) {
+            this.termIndex = new TermVectorIndex(this.text1);
+        }
+        return this.termIndex;
+    }
+
+    /**
+     * Sets the term vectors of the original version, e.g. to share them between changes of a document.
+     */
+    public void setTermIndex(TermVectorIndex termIndex) {
+        this.termIndex = termIndex;
+    }
+
+    /**
+     * Sets the time budget for the change, e.g. when the context was created ahead of classification.
+     */
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the change extended to whole words, e.g. when it is known in advance.
+     */
+    public void setWordChange(Change wordChange) {
+        this.wordChange = wordChange;
+        this.wordCounts = null;
+    }
+
+    /**
+     * Sets the change extended to whole sentences, e.g. when it is known in advance.
+     */
+    public void setSentenceChange(Change sentenceChange) {
+        this.sentenceChange = sentenceChange;
+    }
+
+    /**
+     * @return Aligned sentences the change belongs to, null unless classified in sentence-aligned mode.
+     */
+    public SentencePair getSentencePair() {
+        return this.sentencePair;
+    }
+
+    /**
+     * Sets the aligned sentences the change belongs to. Their extent replaces the change extended to whole
+     * sentences, and results of sentence-level stages are shared with the other changes of the pair.
+     */
+    public void setSentencePair(SentencePair sentencePair) {
+        this.sentencePair = sentencePair;
+        this.sentenceChange = sentencePair.getChange();
+    }
+
+    private static int countWords(String text) {
+        ArrayList<String> words = LP.tokenizeStop(text, false);
+        int count = 0;
+        for (String w : words) {
+            if (!LP.isNumber(w)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,240 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import ps.models.ChangeTag;
+import ps.models.ChangeTag.Tag;
+
+/**
+ * Runs classification stages in the order of their estimated cost.
+ * <p>
+ * A tag is kept only if no stage of higher precedence assigns a tag, and stages that can no longer win are
+ * not run at all. Hence the result equals that of running the stages one after another in order of precedence,
+ * while cheap stages get a chance to decide first. Expensive stages are skipped once the time budget of a
+ * change is used up; the tag is then marked as degraded.
+ */
+public class ClassificationPipeline {
+    /**
+     * System property with a comma-separated list of names of stages to be disabled, e.g. "grammar".
+     */
+    public static final String DISABLED_STAGES = "nutcracker.stages.disabled";
+
+    private static final Comparator<Stage> BY_COST = Comparator.comparingDouble(Stage::getCost)
+            .thenComparingInt(Stage::getPrecedence);
+
+    // stages ordered by cost, replaced as a whole when stages are added or removed
+    private volatile Stage[] stages;
+    private final ConcurrentHashMap<String, StageStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * <p>
+     * @param stages Stages to be run.
+     */
+    public ClassificationPipeline(List<Stage> stages) {
+        this.stages = sort(stages);
+    }
+
+    // public methods
+    /**
+     * @return pipeline of default stages, stages registered as services, without stages disabled through
+     * the system property {@value #DISABLED_STAGES}.
+     */
+    public static ClassificationPipeline getDefault() {
+        List<Stage> stages = DefaultStages.getStages();
+        for (Stage stage : ServiceLoader.load(Stage.class)) {
+            stages.add(stage);
+        }
+        Set<String> disabled = new HashSet<>(Arrays.asList(System.getProperty(DISABLED_STAGES, "").split(",")));
+        stages.removeIf(stage -> disabled.contains(stage.getName()));
+        return new ClassificationPipeline(stages);
+    }
+
+    /**
+     * Adds a stage to the pipeline.
+     */
+    public synchronized void addStage(Stage stage) {
+        List<Stage> list = getStages();
+        list.add(stage);
+        this.stages = sort(list);
+    }
+
+    /**
+     * @param name name of the stage to be removed.
+     * @return true, if a stage was removed.
+     */
+    public synchronized boolean removeStage(String name) {
+        List<Stage> list = getStages();
+        boolean removed = list.removeIf(stage -> stage.getName().equals(name));
+        this.stages = sort(list);
+        return removed;
+    }
+
+    /**
+     * @return stages in the order they are run.
+     */
+    public List<Stage> getStages() {
+        return new ArrayList<>(Arrays.asList(this.stages));
+    }
+
+    /**
+     * @param context State of the change to be classified.
+     * @return Tag of the stage with the highest precedence that assigned one, UNDEFINED otherwise.
+     */
+    public ChangeTag classify(ClassificationContext context) {
+        ChangeTag best = null;
+        int bestPrecedence = Integer.MAX_VALUE;
+        // highest precedence of a stage skipped due to the time budget
+        int skipped = Integer.MAX_VALUE;
+        for (Stage stage : this.stages) {
+            if (stage.getPrecedence() >= bestPrecedence || !stage.isApplicable(context)) {
+                continue;
+            }
+            StageStatistics stats = getStatistics(stage.getName());
+            if (stage.isExpensive() && context.getBudget().isExhausted()) {
+                stats.skipped.increment();
+                skipped = Math.min(skipped, stage.getPrecedence());
+                continue;
+            }
+            // results of sentence-level stages are shared by the changes of aligned sentences
+            SentencePair pair = stage.isSentenceLevel() ? context.getSentencePair() : null;
+            ChangeTag tag;
+            if (pair != null && pair.isDecided(stage.getName())) {
+                tag = pair.getTag(stage.getName());
+                stats.shared.increment();
+            } else {
+                long start = System.nanoTime();
+                tag = stage.apply(context);
+                stats.nanos.add(System.nanoTime() - start);
+                stats.invocations.increment();
+                if (tag != null) {
+                    stats.hits.increment();
+                }
+                if (pair != null && (tag != null || !stage.isExpensive() || !context.getBudget().isExhausted())) {
+                    pair.setTag(stage.getName(), tag);
+                }
+            }
+            if (tag != null) {
+                best = tag;
+                bestPrecedence = stage.getPrecedence();
+            } else if (stage.isExpensive() && context.getBudget().isExhausted()) {
+                // stage gave up because the budget ran out
+                skipped = Math.min(skipped, stage.getPrecedence());
+            }
+        }
+        if (best == null) {
+            best = new ChangeTag(context.getChange(), Tag.UNDEFINED);
+        }
+        if (skipped < bestPrecedence) {
+            best.setDegraded(true);
+        }
+        return best;
+    }
+
+    /**
+     * @return statistics of all stages that have been run.
+     */
+    public List<StageStatistics> getStatistics() {
+        List<StageStatistics> list = new ArrayList<>(this.statistics.values());
+        list.sort(Comparator.comparing(StageStatistics::getName));
+        return list;
+    }
+
+    /**
+     * Resets statistics of all stages.
+     */
+    public void resetStatistics() {
+        this.statistics.clear();
+    }
+    // public methods
+
+    // private methods
+    private StageStatistics getStatistics(String name) {
+        return this.statistics.computeIfAbsent(name, StageStatistics::new);
+    }
+
+    private static Stage[] sort(List<Stage> stages) {
+        Stage[] sorted = stages.toArray(new Stage[stages.size()]);
+        Arrays.sort(sorted, BY_COST);
+        return sorted;
+    }
+    // private methods
+
+    /**
+     * Statistics of a stage: how often it was run, assigned a tag, was skipped, and how long it took.
+     */
+    public static class StageStatistics {
+        private final String name;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder shared = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private StageStatistics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return Name of the stage.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return Number of times the stage was run.
+         */
+        public long getInvocations() {
+            return this.invocations.sum();
+        }
+
+        /**
+         * @return Number of times the stage assigned a tag.
+         */
+        public long getHits() {
+            return this.hits.sum();
+        }
+
+        /**
+         * @return Number of times the stage was skipped due to the time budget.
+         */
+        public long getSkipped() {
+            return this.skipped.sum();
+        }
+
+        /**
+         * @return Number of times the result of the stage was taken from another change of the same aligned
+         * sentences instead of running it.
+         */
+        public long getShared() {
+            return this.shared.sum();
+        }
+
+        /**
+         * @return Total time spent in the stage in milliseconds.
+         */
+        public double getMillis() {
+            return this.nanos.sum() / 1e6;
+        }
+
+        /**
+         * @return Statistics as a string.
+         * <p>
+         * Example: grammar: 12 runs, 3 tags, 0 skipped, 840.12 ms
+         */
+        public String toString() {
+            return this.name + ": " + getInvocations() + " runs, " + getHits() + " tags, " + getSkipped()
+                    + " skipped, " + (getShared() > 0 ? getShared() + " shared, " : "")
+                    + String.format("%.2f", getMillis()) + " ms";
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+import ps.models.ChangeTag.Tag;
+
+/**
+ * Stages of the classification algorithm proposed in the thesis.
+ * <p>
+ * Precedences reproduce the order of the original cascade: citation, formatting, spelling, word
+ * substitution, rephrasing, grammar and topic change. Costs are relative estimates; analyses that need
+ * WordNet or LanguageTool are orders of magnitude more expensive than simple matching.
+ */
+public class DefaultStages {
+    private DefaultStages() {
+    }
+
+    // public methods
+    /**
+     * @return new instances of all default stages.
+     */
+    public static List<Stage> getStages() {
+        return new ArrayList<Stage>(Arrays.asList(new CitationStage(), new FormattingStage(), new SpellingStage(),
+                new SubstitutionStage(), new RephrasingStage(), new GrammarStage(), new TopicStage()));
+    }
+    // public methods
+
+    /**
+     * Base class for stages with fixed name, precedence and cost.
+     */
+    public abstract static class AbstractStage implements Stage {
+        private final String name;
+        private final int precedence;
+        private final double cost;
+        private final boolean expensive;
+
+        protected AbstractStage(String name, int precedence, double cost, boolean expensive) {
+            this.name = name;
+            this.precedence = precedence;
+            this.cost = cost;
+            this.expensive = expensive;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getPrecedence() {
+            return this.precedence;
+        }
+
+        public double getCost() {
+            return this.cost;
+        }
+
+        public boolean isExpensive() {
+            return this.expensive;
+        }
+
+        public boolean isApplicable(ClassificationContext context) {
+            return true;
+        }
+    }
+
+    /**
+     * Changes in in-text citations.
+     */
+    public static class CitationStage extends AbstractStage {
+        public CitationStage() {
+            super("citation", 10, 1, false);
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_citation = context.getCitationChange();
+            if (ChangeAnalyzer.isCitation(changed_citation)) {
+                return new ChangeTag(changed_citation, Tag.CITATION);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Simple cases of formatting.
+     */
+    public static class FormattingStage extends AbstractStage {
+        public FormattingStage() {
+            super("formatting", 20, 1, false);
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_citation = context.getCitationChange();
+            if (ChangeAnalyzer.isFormatting(changed_citation, context.getText1(), context.getText2())) {
+                return new ChangeTag(changed_citation, Tag.FORMATTING);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Spelling corrections. Words, that are misspelled after the change, are left undefined.
+     */
+    public static class SpellingStage extends AbstractStage {
+        public SpellingStage() {
+            super("spelling", 30, 5, false);
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_word = context.getWordChange();
+            switch (ChangeAnalyzer.isSpelling(changed_word)) {
+            case -1:
+                return new ChangeTag(changed_word, Tag.UNDEFINED);
+            case 1:
+                return new ChangeTag(changed_word, Tag.SPELLING);
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Substitution of individual words.
+     */
+    public static class SubstitutionStage extends AbstractStage {
+        public SubstitutionStage() {
+            super("substitution", 40, 50, false);
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_word = context.getWordChange();
+            switch (ChangeAnalyzer.substitutionSimilarity(changed_word)) {
+            case 0:
+                return new ChangeTag(changed_word, Tag.UNRELATED_TERM);
+            case 1:
+                return new ChangeTag(changed_word, Tag.RELATED_TERM);
+            case 2:
+                return new ChangeTag(changed_word, Tag.INTERCHANGEABLE);
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Rephrasing of one or two sentences. Applies to changes of more than one word.
+     */
+    public static class RephrasingStage extends AbstractStage {
+        public RephrasingStage() {
+            super("rephrasing", 50, 500, true);
+        }
+
+        public boolean isSentenceLevel() {
+            return true;
+        }
+
+        public boolean isApplicable(ClassificationContext context) {
+            int[] counts = context.getWordCounts();
+            return counts[0] > 1 || counts[1] > 1;
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_sent = context.getSentenceChange();
+            if (ChangeAnalyzer.isRephrasing(changed_sent)) {
+                return new ChangeTag(changed_sent, Tag.REPHRASING);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Grammar corrections, checked by LanguageTool.
+     */
+    public static class GrammarStage extends AbstractStage {
+        public GrammarStage() {
+            super("grammar", 60, 1000, true);
+        }
+
+        public boolean isSentenceLevel() {
+            return true;
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_sent = context.getSentenceChange();
+            switch (ChangeAnalyzer.isGrammar(changed_sent, context.getBudget())) {
+            case 0:
+                return new ChangeTag(changed_sent, Tag.UNDEFINED);
+            case 1:
+                return new ChangeTag(changed_sent, Tag.GRAMMAR);
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Influence of a change on the topic of its paragraph. Applies to changes of more than two words.
+     */
+    public static class TopicStage extends AbstractStage {
+        public TopicStage() {
+            super("topic", 70, 2000, true);
+        }
+
+        public boolean isSentenceLevel() {
+            return true;
+        }
+
+        public boolean isApplicable(ClassificationContext context) {
+            int[] counts = context.getWordCounts();
+            return counts[0] > 2 || counts[1] > 2;
+        }
+
+        public ChangeTag apply(ClassificationContext context) {
+            Change changed_sent = context.getSentenceChange();
+            switch (ChangeAnalyzer.relatedTopics(changed_sent, context.getTermIndex(), context.getBudget())) {
+            case 0:
+                return new ChangeTag(changed_sent, Tag.MINOR_TOPIC_CHANGE);
+            case 1:
+                return new ChangeTag(changed_sent, Tag.MAJOR_TOPIC_CHANGE);
+            default:
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+
+/**
+ * Stateful classification of a document that is being edited.
+ * <p>
+ * The original version is fixed when the session starts. Every edit of the modified version re-diffs only
+ * the paragraph around the edit, together with any changes touching it, and re-classifies only the changes
+ * found there. Changes outside of this region keep their tags and are shifted by the length difference of
+ * the edit.
+ * <p>
+ * The changes always turn the original into the modified version, and their tags are those a classification of
+ * the same changes gives. A new diff of the whole document may still cut them differently, e.g. around text that
+ * was moved, as the cutting of diff_match_patch depends on the whole text.
+ */
+public class EditSession {
+    private final String original;
+    private String modified;
+    // changes as detected, ordered by position
+    private ArrayList<Change> changes;
+    // classification of changes, one tag per detected change
+    private ArrayList<ChangeTag> classification;
+
+    /**
+     * Starts a session, in which the modified version is initially equal to the original one.
+     * <p>
+     * @param original Original version of the document.
+     */
+    public EditSession(String original) {
+        this(original, original);
+    }
+
+    /**
+     * Starts a session and classifies the changes between both versions.
+     * <p>
+     * @param original Original version of the document.
+     * @param modified Current modified version of the document.
+     */
+    public EditSession(String original, String modified) {
+        this.original = original;
+        this.modified = modified;
+        this.changes = ChangeDetector.getDocumentChanges(original, modified);
+        this.classification = ChangeClassifier.getClassification(this.changes, original, modified);
+    }
+
+    // public methods
+    /**
+     * Applies an edit to the modified version and updates the classification.
+     * <br>
+     * @param offset Position of the edit in the modified version.
+     * @param deleted Number of characters removed at offset.
+     * @param inserted Text inserted at offset.
+     * @return Classification of changes between the original and the edited version.
+     */
+    public ArrayList<ChangeTag> edit(int offset, int deleted, String inserted) {
+        if (offset < 0 || deleted < 0 || offset + deleted > this.modified.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + " , " + (offset + deleted)
+                    + "] is outside of the modified version of length " + this.modified.length());
+        }
+        String edited = this.modified.substring(0, offset) + inserted
+                + this.modified.substring(offset + deleted);
+        int delta = inserted.length() - deleted;
+
+        // region of the modified version to be re-diffed: the paragraph and all changes touching it
+        int start2 = paragraphStart(this.modified, offset);
+        int end2 = paragraphEnd(this.modified, offset + deleted);
+        int first = 0;
+        while (first < this.changes.size() && end2(this.changes.get(first)) < start2) {
+            ++first;
+        }
+        int last = first;
+        while (last < this.changes.size() && this.changes.get(last).getPos2() <= end2) {
+            start2 = Math.min(start2, this.changes.get(last).getPos2());
+            end2 = Math.max(end2, end2(this.changes.get(last)));
+            ++last;
+        }
+
+        // same region in the original version, aligned by the unchanged text around it
+        int start1 = first == 0 ? start2 : start2 + shift(this.changes.get(first - 1));
+        int end1 = last == 0 ? end2 : end2 + shift(this.changes.get(last - 1));
+
+        ArrayList<Change> local = ChangeDetector.getDocumentChanges(this.original.substring(start1, end1),
+                edited.substring(start2, end2 + delta));
+        for (Change c : local) {
+            c.setPos1(c.getPos1() + start1);
+            c.setPos2(c.getPos2() + start2);
+        }
+        ArrayList<ChangeTag> localTags = ChangeClassifier.getClassification(local, this.original, edited);
+
+        ArrayList<Change> newChanges = new ArrayList<>(this.changes.size() - (last - first) + local.size());
+        ArrayList<ChangeTag> newTags = new ArrayList<>(newChanges.size());
+        for (int i = 0; i < first; ++i) {
+            newChanges.add(this.changes.get(i));
+            newTags.add(this.classification.get(i));
+        }
+        newChanges.addAll(local);
+        newTags.addAll(localTags);
+        for (int i = last; i < this.changes.size(); ++i) {
+            ChangeTag ct = this.classification.get(i);
+            newChanges.add(move(this.changes.get(i), delta));
+            newTags.add(new ChangeTag(move(ct.getChange(), delta), ct.getTag()));
+        }
+
+        this.modified = edited;
+        this.changes = newChanges;
+        this.classification = newTags;
+        return getClassification();
+    }
+
+    /**
+     * @return Classification of changes between the original and the current modified version.
+     */
+    public ArrayList<ChangeTag> getClassification() {
+        return new ArrayList<>(this.classification);
+    }
+
+    /**
+     * @return Changes between the original and the current modified version as detected, ordered by position.
+     */
+    public ArrayList<Change> getChanges() {
+        return new ArrayList<>(this.changes);
+    }
+
+    /**
+     * @return Original version of the document.
+     */
+    public String getOriginal() {
+        return this.original;
+    }
+
+    /**
+     * @return Current modified version of the document.
+     */
+    public String getModified() {
+        return this.modified;
+    }
+    // public methods
+
+    // private methods
+    // End of a change in the modified version.
+    private static int end2(Change c) {
+        return c.getPos2() + c.getAfter().length();
+    }
+
+    // Offset between both versions right after a change.
+    private static int shift(Change c) {
+        return c.getPos1() + c.getBefore().length() - end2(c);
+    }
+
+    // Copy of a change moved in the modified version.
+    private static Change move(Change c, int delta) {
+        return new Change(c.getBefore(), c.getAfter(), c.getPos1(), c.getPos2() + delta);
+    }
+
+    private static int paragraphStart(String text, int pos) {
+        int i = Math.min(pos, text.length());
+        while (i > 0 && text.charAt(i - 1) != '\n' && text.charAt(i - 1) != '\r') {
+            --i;
+        }
+        return i;
+    }
+
+    private static int paragraphEnd(String text, int pos) {
+        int j = pos;
+        while (j < text.length() && text.charAt(j) != '\n' && text.charAt(j) != '\r') {
+            ++j;
+        }
+        return j;
+    }
+    // private methods
+}
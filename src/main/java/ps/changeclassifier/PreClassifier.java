@@ -0,0 +1,375 @@
+package ps.changeclassifier;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+import ps.models.ChangeTag.Tag;
+import ps.utils.BitParallelLcs;
+import ps.utils.LP;
+
+/**
+ * Tags changes from cheap features ahead of the classification stages, if it is confident enough.
+ * <p>
+ * Features are whether the change is a citation, the number of words before and after it, the character classes
+ * it removes and adds, the edit distance of its words, whether they are in the dictionary and whether only the
+ * case changed. None of them needs WordNet or LanguageTool. Changes with equal features form a class, and the
+ * pre-classifier counts the tags (and extensions they were assigned to) the stages gave the changes of each class.
+ * A change is tagged without running the stages if the most frequent tag of its class has a share whose lower
+ * bound (95% Wilson score interval) is at least the threshold, so a class needs both a clear majority and enough
+ * changes before it is trusted.
+ * <p>
+ * The counts are calibrated against the stages on a corpus and loaded from a file. They stay fixed while changes
+ * are classified, so the tag of a change does not depend on which changes were classified before it, or in which
+ * order concurrent ones finished. Every n-th tagged change is audited: the stages are run as well to measure the
+ * agreement rate, and the predicted tag is kept.
+ */
+public class PreClassifier {
+    /**
+     * System property with the minimum confidence at which a change is tagged without the stages, e.g. 0.95.
+     */
+    public static final String THRESHOLD = "nutcracker.preclassifier.threshold";
+
+    /**
+     * System property with the interval of audited changes, e.g. 20 for every 20th tagged change, 0 for none.
+     */
+    public static final String AUDIT = "nutcracker.preclassifier.audit";
+
+    /**
+     * System property with the path of the file of calibrated counts, see {@link #save(Path)}.
+     */
+    public static final String MODEL = "nutcracker.preclassifier.model";
+
+    // Standard normal quantile of the 95% confidence level
+    private static final double Z = 1.96;
+    private static final Tag[] TAGS = Tag.values();
+    // Extensions a tag can be assigned to, by level of ChangeClassifier
+    private static final String[] LEVELS = { "change", "citation", "word", "sentence" };
+    // Label of tags assigned to any other extension, never predicted
+    private static final int OTHER = TAGS.length * LEVELS.length;
+    private static final char SEPARATOR = '|';
+
+    private final double threshold;
+    private final int audit;
+    // counts of labels (tag and level) per class of features, atomic so that predicting takes no lock
+    private final ConcurrentHashMap<String, AtomicIntegerArray> counts = new ConcurrentHashMap<>();
+
+    private final LongAdder checked = new LongAdder();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final LongAdder audited = new LongAdder();
+    private final LongAdder agreed = new LongAdder();
+
+    /**
+     * Constructor of a pre-classifier without counts.
+     * <p>
+     * @param threshold Minimum confidence at which a change is tagged without the stages, between 0 and 1.
+     * @param audit Interval of tagged changes, for which the stages are run as well, 0 for none.
+     */
+    public PreClassifier(double threshold, int audit) {
+        this.threshold = threshold;
+        this.audit = Math.max(0, audit);
+    }
+
+    // public methods
+    /**
+     * @return pre-classifier configured by the system properties {@value #THRESHOLD} (0.95 by default),
+     * {@value #AUDIT} (20 by default) and {@value #MODEL}, whose counts are loaded if the file exists.
+     */
+    public static PreClassifier fromProperties() {
+        PreClassifier pre = new PreClassifier(Double.parseDouble(System.getProperty(THRESHOLD, "0.95")),
+                Integer.getInteger(AUDIT, 20));
+        String model = System.getProperty(MODEL);
+        if (model != null && Files.isRegularFile(Paths.get(model))) {
+            try {
+                pre.load(Paths.get(model));
+            } catch (IOException e) {
+                System.out.println("Could not load pre-classifier counts: " + e.getMessage());
+            }
+        }
+        return pre;
+    }
+
+    /**
+     * Tags a change from its features if confident, otherwise runs the stages.
+     * <br>
+     * @param context State of the change to be classified.
+     * @param pipeline Stages to fall through to.
+     * @return Tag of the change.
+     */
+    public ChangeTag classify(ClassificationContext context, ClassificationPipeline pipeline) {
+        this.checked.increment();
+        String key = features(context);
+        int label = predict(key);
+        if (label < 0) {
+            return pipeline.classify(context);
+        }
+        ChangeTag predicted = toTag(context, label);
+        if (this.audit > 0 && this.bypassed.incrementAndGet() % this.audit == 0) {
+            // the predicted tag is kept, so that the result does not depend on which changes are audited
+            ChangeTag tag = pipeline.classify(context);
+            this.audited.increment();
+            if (labelOf(context, tag) == label) {
+                this.agreed.increment();
+            }
+        } else if (this.audit == 0) {
+            this.bypassed.incrementAndGet();
+        }
+        return predicted;
+    }
+
+    /**
+     * @return Minimum confidence at which a change is tagged without the stages.
+     */
+    public double getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * @return Number of changes checked.
+     */
+    public long getChecked() {
+        return this.checked.sum();
+    }
+
+    /**
+     * @return Number of changes tagged without the stages.
+     */
+    public long getBypassed() {
+        return this.bypassed.get();
+    }
+
+    /**
+     * @return Number of tagged changes, for which the stages were run as well.
+     */
+    public long getAudited() {
+        return this.audited.sum();
+    }
+
+    /**
+     * @return Number of audited changes, to which the stages assigned the same tag.
+     */
+    public long getAgreed() {
+        return this.agreed.sum();
+    }
+
+    /**
+     * @return Share of checked changes tagged without the stages.
+     */
+    public double getBypassRate() {
+        long n = getChecked();
+        return n == 0 ? 0 : (double) getBypassed() / n;
+    }
+
+    /**
+     * @return Share of audited changes, to which the stages assigned the same tag, NaN if none was audited.
+     */
+    public double getAgreementRate() {
+        long n = getAudited();
+        return n == 0 ? Double.NaN : (double) getAgreed() / n;
+    }
+
+    /**
+     * @return Number of classes of features with counts.
+     */
+    public int getClasses() {
+        return this.counts.size();
+    }
+
+    /**
+     * Resets the rates, but keeps the counts.
+     */
+    public void resetStatistics() {
+        this.checked.reset();
+        this.bypassed.set(0);
+        this.audited.reset();
+        this.agreed.reset();
+    }
+
+    /**
+     * Adds counts from a file, one line per class of features and label: features, tag, extension and count,
+     * separated by tabs.
+     * <br>
+     * @param path File written by {@link #save(Path)}.
+     */
+    public void load(Path path) throws IOException {
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                continue;
+            }
+            int level = indexOf(fields[2]);
+            int label = level < 0 ? OTHER : Tag.valueOf(fields[1]).ordinal() * LEVELS.length + level;
+            this.counts.computeIfAbsent(fields[0], k -> new AtomicIntegerArray(OTHER + 1)).addAndGet(label,
+                    Integer.parseInt(fields[3]));
+        }
+    }
+
+    /**
+     * Writes the counts, sorted by features.
+     * <br>
+     * @param path File to be written.
+     */
+    public void save(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, AtomicIntegerArray> e : new TreeMap<>(this.counts).entrySet()) {
+                AtomicIntegerArray c = e.getValue();
+                for (int label = 0; label <= OTHER; ++label) {
+                    int count = c.get(label);
+                    if (count > 0) {
+                        String tag = label == OTHER ? Tag.UNDEFINED.toString()
+                                : TAGS[label / LEVELS.length].toString();
+                        String level = label == OTHER ? "other" : LEVELS[label % LEVELS.length];
+                        writer.write(e.getKey() + "\t" + tag + "\t" + level + "\t" + count);
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Rates of the pre-classifier.
+     * <p>
+     * Example: 412 of 1288 changes bypassed (32.0%), 20 of 20 audited agreed (100.0%), 96 classes
+     */
+    public String toString() {
+        return String.format("%d of %d changes bypassed (%.1f%%), %d of %d audited agreed (%.1f%%), %d classes",
+                getBypassed(), getChecked(), 100 * getBypassRate(), getAgreed(), getAudited(),
+                getAudited() == 0 ? 0 : 100 * getAgreementRate(), getClasses());
+    }
+    // public methods
+
+    // private methods
+    /*
+    Class of features of a change, e.g. "c0|w1,1|k1,1|d2|iyy|a0":
+    citation, words before and after, character classes removed and added (bits: letter, upper case, digit,
+    whitespace, other), edit distance of the words, dictionary membership of single words before and after
+    (y, n or - if not a single word) and case-only change.
+    */
+    static String features(ClassificationContext context) {
+        Change change = context.getChange();
+        Change word = context.getWordChange();
+        int[] words = context.getWordCounts();
+        StringBuilder key = new StringBuilder();
+        key.append('c').append(ChangeAnalyzer.isCitation(context.getCitationChange()) ? 1 : 0).append(SEPARATOR);
+        key.append('w').append(bucket(words[0])).append(',').append(bucket(words[1])).append(SEPARATOR);
+        key.append('k').append(characterClasses(change.getBefore())).append(',')
+                .append(characterClasses(change.getAfter())).append(SEPARATOR);
+        key.append('d').append(distance(word.getBefore().trim(), word.getAfter().trim())).append(SEPARATOR);
+        key.append('i').append(dictionary(word.getBefore())).append(dictionary(word.getAfter())).append(SEPARATOR);
+        key.append('a').append(!word.getBefore().equals(word.getAfter())
+                && word.getBefore().equalsIgnoreCase(word.getAfter()) ? 1 : 0);
+        return key.toString();
+    }
+
+    /*
+    Label of a tag: its tag and the extension of the change it was assigned to. Tags of other extensions,
+    e.g. of custom stages, get a label that is never predicted.
+    */
+    static int labelOf(ClassificationContext context, ChangeTag tag) {
+        int level = ChangeClassifier.levelOf(context, tag);
+        return level < LEVELS.length ? tag.getTag().ordinal() * LEVELS.length + level : OTHER;
+    }
+
+    // Most frequent label of a class, if confident enough, -1 otherwise.
+    int predict(String key) {
+        AtomicIntegerArray c = this.counts.get(key);
+        if (c == null) {
+            return -1;
+        }
+        int best = 0, bestCount = 0;
+        long total = 0;
+        for (int label = 0; label <= OTHER; ++label) {
+            int count = c.get(label);
+            total += count;
+            if (count > bestCount) {
+                best = label;
+                bestCount = count;
+            }
+        }
+        if (best == OTHER || total == 0 || lowerBound(bestCount, total) < this.threshold) {
+            return -1;
+        }
+        return best;
+    }
+
+    // Tag of a label, assigned to the extension of the change given by the label.
+    private static ChangeTag toTag(ClassificationContext context, int label) {
+        return new ChangeTag(ChangeClassifier.extensionOf(context, label % LEVELS.length),
+                TAGS[label / LEVELS.length]);
+    }
+
+    // Counts a label for a class of features, only while calibrating.
+    void record(String key, int label) {
+        this.counts.computeIfAbsent(key, k -> new AtomicIntegerArray(OTHER + 1)).incrementAndGet(label);
+    }
+
+    // Lower bound of the Wilson score interval of a share.
+    private static double lowerBound(long hits, long total) {
+        double p = (double) hits / total;
+        double z2 = Z * Z;
+        double center = p + z2 / (2 * total);
+        double half = Z * Math.sqrt(p * (1 - p) / total + z2 / (4.0 * total * total));
+        return (center - half) / (1 + z2 / total);
+    }
+
+    // Counts 0 to 3 as they are, larger ones in classes 4 (up to 6), 7 (up to 20) and 21.
+    private static int bucket(int n) {
+        return n <= 3 ? n : n <= 6 ? 4 : n <= 20 ? 7 : 21;
+    }
+
+    private static int characterClasses(String text) {
+        int classes = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                classes |= Character.isUpperCase(c) ? 3 : 1;
+            } else if (Character.isDigit(c)) {
+                classes |= 4;
+            } else if (Character.isWhitespace(c)) {
+                classes |= 8;
+            } else {
+                classes |= 16;
+            }
+        }
+        return classes;
+    }
+
+    // Edit distance up to 3 as it is, larger ones as 4, and 5 for texts too long to compare.
+    private static int distance(String before, String after) {
+        if (before.length() > BitParallelLcs.MAX_LENGTH || after.length() > BitParallelLcs.MAX_LENGTH) {
+            return 5;
+        }
+        return Math.min(4, BitParallelLcs.minDistance(before, after));
+    }
+
+    private static char dictionary(String text) {
+        ArrayList<String> tokens = LP.tokenizeStop(text, false);
+        if (tokens.size() != 1) {
+            return '-';
+        }
+        return LP.inDictionary(tokens.get(0)) ? 'y' : 'n';
+    }
+
+    private static int indexOf(String level) {
+        for (int i = 0; i < LEVELS.length; ++i) {
+            if (LEVELS[i].equals(level)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    // private methods
+}
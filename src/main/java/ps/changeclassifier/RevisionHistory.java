@@ -0,0 +1,59 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+import ps.models.RevisionTag;
+
+/**
+ * Class that classifies changes in a chain of document versions.
+ * <p>
+ * Consecutive versions are compared pairwise. Grammar checks and similarity scores of unchanged text
+ * fragments are memoized in {@link ps.utils.LP}, so that a version reuses the results computed for its
+ * predecessor instead of analyzing the same sentences again.
+ */
+public class RevisionHistory {
+    private RevisionHistory() {
+    }
+
+    // public methods
+    /**
+     * Prints the number of each revision before it is classified, if {@link ChangeClassifier#isVerbose()}.
+     * <br>
+     * @param versions ordered list of versions of the document, oldest first.
+     * @return timeline of classified changes with their positions mapped to the latest version.
+     */
+    public static ArrayList<RevisionTag> getTimeline(List<String> versions) {
+        ArrayList<RevisionTag> timeline = new ArrayList<>();
+        if (versions.size() < 2) {
+            return timeline;
+        }
+        // changes between each pair of consecutive versions, needed to map positions forward
+        ArrayList<ArrayList<Change>> steps = new ArrayList<>(versions.size() - 1);
+        ArrayList<ArrayList<ChangeTag>> tags = new ArrayList<>(versions.size() - 1);
+        for (int i = 0; i < versions.size() - 1; ++i) {
+            String text1 = versions.get(i);
+            String text2 = versions.get(i + 1);
+            if (ChangeClassifier.isVerbose()) {
+                System.out.println("Revision " + (i + 1) + " of " + (versions.size() - 1));
+            }
+            ArrayList<Change> changes = ChangeDetector.getDocumentChanges(text1, text2);
+            steps.add(changes);
+            tags.add(ChangeClassifier.getClassification(changes, text1, text2));
+        }
+
+        for (int i = 0; i < tags.size(); ++i) {
+            for (ChangeTag ct : tags.get(i)) {
+                int pos = ct.getChange().getPos2();
+                for (int j = i + 1; j < steps.size() && pos != -1; ++j) {
+                    pos = ChangeDetector.mapPosition(steps.get(j), pos);
+                }
+                timeline.add(new RevisionTag(i + 1, ct, pos));
+            }
+        }
+        return timeline;
+    }
+    // public methods
+}
@@ -0,0 +1,271 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+import name.fraser.neil.plaintext.diff_match_patch.Operation;
+import ps.models.Change;
+import ps.utils.LP;
+import ps.utils.RegEx;
+
+/**
+ * Aligns the sentences of two versions of a document and groups changes by the aligned sentences they touch.
+ * <p>
+ * Sentences end where {@link LP#nearestSentence(String, int, int)} stops, so a change within one sentence gets the
+ * same sentence extension as from {@link ChangeDetector}. Equal sentences are aligned by their content: each
+ * distinct sentence becomes one character and the diff of these characters is the longest common subsequence.
+ * Sentences in between are paired by word overlap, in order.
+ */
+public class SentenceAligner {
+    // Minimum share of common words of sentences that are paired with each other
+    private static final double MIN_SIMILARITY = 0.2;
+
+    private static diff_match_patch dmp = new diff_match_patch();
+
+    private SentenceAligner() {
+    }
+
+    // public methods
+    /**
+     * @param changes Changes between both versions, ordered by position.
+     * @param indices Indices of the changes to be grouped.
+     * @param text1 Original version of the document.
+     * @param text2 Modified version of the document.
+     * @return Aligned sentences with the changes they contain, in the order of the document. A change that spans
+     * more than one pair merges them.
+     */
+    public static ArrayList<SentencePair> group(ArrayList<Change> changes, ArrayList<Integer> indices, String text1,
+            String text2) {
+        ArrayList<int[]> blocks = align(text1, text2);
+        int[] ends1 = new int[blocks.size()];
+        int[] ends2 = new int[blocks.size()];
+        for (int b = 0; b < blocks.size(); ++b) {
+            ends1[b] = blocks.get(b)[1];
+            ends2[b] = blocks.get(b)[3];
+        }
+
+        // range of blocks touched by each change, merged where they overlap
+        int[][] ranges = new int[indices.size()][];
+        for (int k = 0; k < indices.size(); ++k) {
+            Change c = changes.get(indices.get(k));
+            int lo = Integer.MAX_VALUE, hi = -1;
+            if (!c.getBefore().isEmpty()) {
+                lo = Math.min(lo, blockAt(ends1, c.getPos1()));
+                hi = Math.max(hi, blockAt(ends1, c.getPos1() + c.getBefore().length() - 1));
+            }
+            if (!c.getAfter().isEmpty()) {
+                lo = Math.min(lo, blockAt(ends2, c.getPos2()));
+                hi = Math.max(hi, blockAt(ends2, c.getPos2() + c.getAfter().length() - 1));
+            }
+            if (hi < 0) {
+                lo = hi = blockAt(ends1, c.getPos1());
+            }
+            ranges[k] = new int[] { lo, hi, indices.get(k) };
+        }
+        Arrays.sort(ranges, (r1, r2) -> r1[0] != r2[0] ? Integer.compare(r1[0], r2[0])
+                : Integer.compare(r1[2], r2[2]));
+
+        ArrayList<SentencePair> pairs = new ArrayList<>();
+        int k = 0;
+        while (k < ranges.length) {
+            int lo = ranges[k][0], hi = ranges[k][1];
+            int first = k;
+            while (k < ranges.length && ranges[k][0] <= hi) {
+                hi = Math.max(hi, ranges[k][1]);
+                ++k;
+            }
+            SentencePair pair = new SentencePair(sentences(blocks.get(lo), blocks.get(hi), text1, text2));
+            for (int i = first; i < k; ++i) {
+                pair.getIndices().add(ranges[i][2]);
+            }
+            pair.getIndices().sort(null);
+            pairs.add(pair);
+        }
+        return pairs;
+    }
+
+    /**
+     * @param text1 Original version of the document.
+     * @param text2 Modified version of the document.
+     * @return Aligned blocks {start1, end1, start2, end2}, in order and covering both versions. A block is a pair of
+     * sentences, or a single sentence with an empty range in the other version.
+     */
+    public static ArrayList<int[]> align(String text1, String text2) {
+        int[] bounds1 = segment(text1);
+        int[] bounds2 = segment(text2);
+        HashMap<String, Character> codes = new HashMap<>();
+        String chars1 = encode(text1, bounds1, codes);
+        String chars2 = encode(text2, bounds2, codes);
+        ArrayList<int[]> blocks = new ArrayList<>();
+        if (chars1 == null || chars2 == null) {
+            // more distinct sentences than characters, the versions are compared as a whole
+            blocks.add(new int[] { 0, text1.length(), 0, text2.length() });
+            return blocks;
+        }
+
+        LinkedList<Diff> diffs = dmp.diff_main(chars1, chars2, false);
+        int s1 = 0, s2 = 0, deleted = 0, inserted = 0;
+        for (Diff d : diffs) {
+            if (d.operation == Operation.DELETE) {
+                deleted += d.text.length();
+            } else if (d.operation == Operation.INSERT) {
+                inserted += d.text.length();
+            } else {
+                pairGap(text1, bounds1, s1, s1 + deleted, text2, bounds2, s2, s2 + inserted, blocks);
+                s1 += deleted;
+                s2 += inserted;
+                deleted = inserted = 0;
+                for (int i = 0; i < d.text.length(); ++i, ++s1, ++s2) {
+                    blocks.add(new int[] { bounds1[s1], bounds1[s1 + 1], bounds2[s2], bounds2[s2 + 1] });
+                }
+            }
+        }
+        pairGap(text1, bounds1, s1, s1 + deleted, text2, bounds2, s2, s2 + inserted, blocks);
+        return blocks;
+    }
+    // public methods
+
+    // private methods
+    // Start of every sentence followed by the length of the text. A sentence starts at the character that ends
+    // the previous one, as in LP.nearestSentence.
+    private static int[] segment(String text) {
+        int[] bounds = new int[16];
+        int n = 0;
+        bounds[n++] = 0;
+        for (int i = 1; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '?' || c == '!' || c == '\n') {
+                if (n == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, 2 * n);
+                }
+                bounds[n++] = i;
+            }
+        }
+        if (n == bounds.length) {
+            bounds = Arrays.copyOf(bounds, n + 1);
+        }
+        bounds[n++] = text.length();
+        return Arrays.copyOf(bounds, n);
+    }
+
+    // One character per sentence, equal for sentences equal up to punctuation and whitespace at their ends.
+    // Null if there are more distinct sentences than characters.
+    private static String encode(String text, int[] bounds, HashMap<String, Character> codes) {
+        StringBuilder chars = new StringBuilder(bounds.length - 1);
+        for (int s = 0; s + 1 < bounds.length; ++s) {
+            String sentence = trim(text.substring(bounds[s], bounds[s + 1]));
+            Character code = codes.get(sentence);
+            if (code == null) {
+                if (codes.size() == Character.MAX_VALUE) {
+                    return null;
+                }
+                code = (char) codes.size();
+                codes.put(sentence, code);
+            }
+            chars.append(code.charValue());
+        }
+        return chars.toString();
+    }
+
+    /*
+    Pairs the sentences between two equal ones, keeping their order.
+    Maximizes the sum of word overlaps of the pairs; sentences left without a partner become blocks of their own.
+    */
+    private static void pairGap(String text1, int[] bounds1, int from1, int to1, String text2, int[] bounds2,
+            int from2, int to2, ArrayList<int[]> blocks) {
+        int m = to1 - from1, n = to2 - from2;
+        if (m == 0 && n == 0) {
+            return;
+        }
+        double[][] sim = new double[m][n];
+        if (m > 0 && n > 0) {
+            ArrayList<HashSet<String>> words1 = new ArrayList<>(m);
+            for (int i = 0; i < m; ++i) {
+                words1.add(words(text1.substring(bounds1[from1 + i], bounds1[from1 + i + 1])));
+            }
+            for (int j = 0; j < n; ++j) {
+                HashSet<String> words2 = words(text2.substring(bounds2[from2 + j], bounds2[from2 + j + 1]));
+                for (int i = 0; i < m; ++i) {
+                    sim[i][j] = overlap(words1.get(i), words2);
+                }
+            }
+        }
+        // best[i][j]: highest sum of overlaps of the first i and j sentences
+        double[][] best = new double[m + 1][n + 1];
+        for (int i = 1; i <= m; ++i) {
+            for (int j = 1; j <= n; ++j) {
+                best[i][j] = Math.max(best[i - 1][j], best[i][j - 1]);
+                if (sim[i - 1][j - 1] >= MIN_SIMILARITY) {
+                    best[i][j] = Math.max(best[i][j], best[i - 1][j - 1] + sim[i - 1][j - 1]);
+                }
+            }
+        }
+        LinkedList<int[]> gap = new LinkedList<>();
+        int i = m, j = n;
+        while (i > 0 || j > 0) {
+            int s1 = from1 + i, s2 = from2 + j;
+            if (i > 0 && j > 0 && sim[i - 1][j - 1] >= MIN_SIMILARITY
+                    && best[i][j] == best[i - 1][j - 1] + sim[i - 1][j - 1]) {
+                gap.addFirst(new int[] { bounds1[s1 - 1], bounds1[s1], bounds2[s2 - 1], bounds2[s2] });
+                --i;
+                --j;
+            } else if (i > 0 && (j == 0 || best[i][j] == best[i - 1][j])) {
+                gap.addFirst(new int[] { bounds1[s1 - 1], bounds1[s1], bounds2[s2], bounds2[s2] });
+                --i;
+            } else {
+                gap.addFirst(new int[] { bounds1[s1], bounds1[s1], bounds2[s2 - 1], bounds2[s2] });
+                --j;
+            }
+        }
+        blocks.addAll(gap);
+    }
+
+    // Index of the block that contains the position, given the ends of all blocks in one version.
+    private static int blockAt(int[] ends, int pos) {
+        int lo = 0, hi = ends.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] > pos) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    // Blocks from first to last as a change, trimmed as ChangeDetector extends changes to sentences.
+    private static Change sentences(int[] first, int[] last, String text1, String text2) {
+        String before = trim(text1.substring(first[0], last[1]));
+        String after = trim(text2.substring(first[2], last[3]));
+        return new Change(before, after, first[0], first[2]);
+    }
+
+    private static String trim(String sentence) {
+        return sentence.replaceAll(RegEx.TRIM_START, "").replaceAll(RegEx.TRIM_END, "");
+    }
+
+    private static HashSet<String> words(String sentence) {
+        return new HashSet<>(LP.tokenizeStop(sentence, false));
+    }
+
+    // Jaccard coefficient of two sets of words.
+    private static double overlap(HashSet<String> words1, HashSet<String> words2) {
+        if (words1.isEmpty() && words2.isEmpty()) {
+            return 0;
+        }
+        int common = 0;
+        for (String w : words1) {
+            if (words2.contains(w)) {
+                ++common;
+            }
+        }
+        return (double) common / (words1.size() + words2.size() - common);
+    }
+    // private methods
+}
@@ -0,0 +1,73 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+
+/**
+ * Aligned sentences of both versions of a document, that contain one or more changes.
+ * <p>
+ * Results of sentence-level stages depend on nothing but the sentences, so they are computed for the first change
+ * of the pair and reused for the others. Results are kept in a concurrent map rather than behind a monitor, so
+ * that changes classified in virtual threads do not pin their carriers.
+ */
+public class SentencePair {
+    // marks a stage that ran and assigned no tag
+    private static final ChangeTag NONE = new ChangeTag(new Change("", "", 0, 0), ChangeTag.Tag.UNDEFINED);
+
+    private final Change change;
+    private final ArrayList<Integer> indices = new ArrayList<>();
+    private final ConcurrentHashMap<String, ChangeTag> results = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * <p>
+     * @param change Aligned sentences as a change, positions are those of the sentence boundaries.
+     */
+    public SentencePair(Change change) {
+        this.change = change;
+    }
+
+    // public methods
+    /**
+     * @return Aligned sentences as a change.
+     */
+    public Change getChange() {
+        return this.change;
+    }
+
+    /**
+     * @return Indices of the changes within the sentences, in ascending order.
+     */
+    public ArrayList<Integer> getIndices() {
+        return this.indices;
+    }
+
+    /**
+     * @param stage Name of a stage.
+     * @return true, if the result of the stage is known for this pair.
+     */
+    public boolean isDecided(String stage) {
+        return this.results.containsKey(stage);
+    }
+
+    /**
+     * @param stage Name of a stage.
+     * @return Copy of the tag the stage assigned to this pair, null if it assigned none or has not run.
+     */
+    public ChangeTag getTag(String stage) {
+        ChangeTag tag = this.results.get(stage);
+        return tag == null || tag == NONE ? null : new ChangeTag(tag.getChange(), tag.getTag());
+    }
+
+    /**
+     * @param stage Name of a stage.
+     * @param tag Tag the stage assigned to this pair or null.
+     */
+    public void setTag(String stage, ChangeTag tag) {
+        this.results.put(stage, tag == null ? NONE : new ChangeTag(tag.getChange(), tag.getTag()));
+    }
+    // public methods
+}
@@ -0,0 +1,59 @@
+package ps.changeclassifier;
+
+import ps.models.ChangeTag;
+
+/**
+ * Step of change classification.
+ * <p>
+ * Stages are run by {@link ClassificationPipeline} in the order of their estimated cost. A tag from a stage
+ * is only kept if no stage of higher precedence (lower value) assigns a tag as well, so the outcome does not
+ * depend on the order, in which stages are run.
+ * <p>
+ * Additional stages are discovered through {@link java.util.ServiceLoader}: list implementations in
+ * <code>META-INF/services/ps.changeclassifier.Stage</code>.
+ */
+public interface Stage {
+
+    /**
+     * @return Unique name of the stage.
+     */
+    String getName();
+
+    /**
+     * @return Precedence of the stage. Tags of stages with lower values win.
+     */
+    int getPrecedence();
+
+    /**
+     * @return Estimated relative cost of the stage.
+     */
+    double getCost();
+
+    /**
+     * @return true, if the stage may be skipped once the time budget is used up.
+     */
+    default boolean isExpensive() {
+        return false;
+    }
+
+    /**
+     * @return true, if the result of the stage depends on nothing but the change extended to whole sentences, the
+     * time budget and the term vectors of the original version. In sentence-aligned classification such stages run
+     * once per pair of aligned sentences.
+     */
+    default boolean isSentenceLevel() {
+        return false;
+    }
+
+    /**
+     * @param context State of the change to be classified.
+     * @return true, if the stage can assign a tag to the change.
+     */
+    boolean isApplicable(ClassificationContext context);
+
+    /**
+     * @param context State of the change to be classified.
+     * @return Tag for the change or null to continue with other stages.
+     */
+    ChangeTag apply(ClassificationContext context);
+}
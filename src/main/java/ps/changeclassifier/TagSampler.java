@@ -0,0 +1,191 @@
+package ps.changeclassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import ps.models.Change;
+import ps.models.ChangeTag.Tag;
+import ps.models.TagEstimate;
+
+/**
+ * Estimates the tag distribution of a document from a stratified random sample of its changes.
+ * <p>
+ * All changes are detected, but only a sample is classified. Changes are divided into strata by size (characters
+ * removed and added) and by region (quarter of the original version), since both decide which tags are likely.
+ * The sample is drawn in rounds, each spread over the strata in proportion to their size, and the share of a tag
+ * is the weighted mean of its share within the strata. Intervals are Wilson score intervals on the effective sample
+ * size of the stratified estimate, so rare tags get a sensible bound even if they are not sampled at all.
+ * <p>
+ * Sampling stops once every interval is within the requested margin, the maximum sample size is reached or every
+ * change has been classified.
+ */
+public class TagSampler {
+    // Upper bounds of the size classes in characters; larger changes form the last class
+    private static final int[] SIZES = { 2, 8, 32, 128 };
+    private static final int REGIONS = 4;
+    // Changes classified per round
+    private static final int ROUND = 32;
+    // Standard normal quantile of the 95% confidence level
+    private static final double Z = 1.96;
+    private static final double CONFIDENCE = 0.95;
+    private static final Tag[] TAGS = Tag.values();
+
+    private final int maxSample;
+    private final double margin;
+    private final long seed;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param maxSample Maximum number of changes to classify.
+     * @param margin Half-width of the confidence intervals, at which sampling stops early. 0 classifies exactly
+     * maxSample changes.
+     * @param seed Seed of the random sample.
+     */
+    public TagSampler(int maxSample, double margin, long seed) {
+        this.maxSample = Math.max(1, maxSample);
+        this.margin = margin;
+        this.seed = seed;
+    }
+
+    // public methods
+    /**
+     * @param changes All changes between both versions, ordered by position.
+     * @param text1 Original version of the document.
+     * @param text2 Modified version of the document.
+     * @return Estimated share of each tag among all changes.
+     */
+    public TagEstimate estimate(ArrayList<Change> changes, String text1, String text2) {
+        int strata = (SIZES.length + 1) * REGIONS;
+        ArrayList<ArrayList<Integer>> members = new ArrayList<>(strata);
+        for (int h = 0; h < strata; ++h) {
+            members.add(new ArrayList<>());
+        }
+        for (int i = 0; i < changes.size(); ++i) {
+            members.get(stratum(changes.get(i), text1.length())).add(i);
+        }
+        Random random = new Random(this.seed);
+        for (ArrayList<Integer> m : members) {
+            Collections.shuffle(m, random);
+        }
+
+        int population = changes.size();
+        int[] sampled = new int[strata];
+        int[][] counts = new int[strata][TAGS.length];
+        int total = 0;
+        TagEstimate estimate = compute(population, 0, members, sampled, counts);
+        while (total < Math.min(this.maxSample, population)) {
+            // next round, spread over the strata in proportion to their size; every stratum gets one at first
+            ArrayList<Integer> round = new ArrayList<>();
+            int budget = Math.min(ROUND, Math.min(this.maxSample, population) - total);
+            for (int h = 0; h < strata && round.size() < budget; ++h) {
+                int size = members.get(h).size();
+                int share = Math.max(total == 0 && size > 0 ? 1 : 0,
+                        (int) Math.round((double) budget * size / population));
+                for (int k = 0; k < share && sampled[h] < size && round.size() < budget; ++k) {
+                    round.add(members.get(h).get(sampled[h]++));
+                }
+            }
+            // rounding may leave some of the budget, fill it from the strata sampled least so far
+            while (round.size() < budget) {
+                int best = -1;
+                for (int h = 0; h < strata; ++h) {
+                    int size = members.get(h).size();
+                    if (sampled[h] < size && (best < 0 || (double) sampled[h] / size
+                            < (double) sampled[best] / members.get(best).size())) {
+                        best = h;
+                    }
+                }
+                round.add(members.get(best).get(sampled[best]++));
+            }
+            Collections.sort(round);
+
+            ArrayList<Change> batch = new ArrayList<>(round.size());
+            for (int i : round) {
+                batch.add(changes.get(i));
+            }
+            int[] next = { 0 };
+            ChangeClassifier.classify(batch, text1, text2, ct -> {
+                int i = round.get(next[0]++);
+                ++counts[stratum(changes.get(i), text1.length())][ct.getTag().ordinal()];
+            });
+            total += round.size();
+            estimate = compute(population, total, members, sampled, counts);
+            if (this.margin > 0 && maxHalfWidth(estimate) <= this.margin) {
+                break;
+            }
+        }
+        return estimate;
+    }
+    // public methods
+
+    // private methods
+    private static int stratum(Change change, int length) {
+        int size = change.getBefore().length() + change.getAfter().length();
+        int s = 0;
+        while (s < SIZES.length && size > SIZES[s]) {
+            ++s;
+        }
+        int region = length == 0 ? 0 : Math.min(REGIONS - 1, (int) ((long) change.getPos1() * REGIONS / length));
+        return s * REGIONS + region;
+    }
+
+    /*
+    Stratified estimate of every tag. Strata that have not been sampled yet count with the share found in all
+    sampled changes. The variance includes the finite population correction of each stratum.
+    */
+    private static TagEstimate compute(int population, int total, ArrayList<ArrayList<Integer>> members,
+            int[] sampled, int[][] counts) {
+        double[] proportions = new double[TAGS.length];
+        double[] lower = new double[TAGS.length];
+        double[] upper = new double[TAGS.length];
+        if (total == 0) {
+            Arrays.fill(upper, 1);
+            return new TagEstimate(population, 0, CONFIDENCE, proportions, lower, upper);
+        }
+        for (int t = 0; t < TAGS.length; ++t) {
+            int overall = 0;
+            for (int h = 0; h < counts.length; ++h) {
+                overall += counts[h][t];
+            }
+            double p = 0, variance = 0;
+            for (int h = 0; h < counts.length; ++h) {
+                int size = members.get(h).size();
+                if (size == 0) {
+                    continue;
+                }
+                double weight = (double) size / population;
+                double ph = sampled[h] > 0 ? (double) counts[h][t] / sampled[h] : (double) overall / total;
+                p += weight * ph;
+                if (sampled[h] > 1) {
+                    double fpc = 1 - (double) sampled[h] / size;
+                    variance += weight * weight * fpc * ph * (1 - ph) / (sampled[h] - 1);
+                }
+            }
+            // effective sample size of the stratified estimate, the plain sample size if it has no variance
+            double n = variance > 0 ? Math.min(population, p * (1 - p) / variance) : total;
+            if (total >= population) {
+                lower[t] = upper[t] = p;
+            } else {
+                double z2 = Z * Z;
+                double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+                double half = Z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n));
+                lower[t] = Math.max(0, center - half);
+                upper[t] = Math.min(1, center + half);
+            }
+            proportions[t] = p;
+        }
+        return new TagEstimate(population, total, CONFIDENCE, proportions, lower, upper);
+    }
+
+    private static double maxHalfWidth(TagEstimate estimate) {
+        double max = 0;
+        for (Tag tag : TAGS) {
+            max = Math.max(max, (estimate.getUpper(tag) - estimate.getLower(tag)) / 2);
+        }
+        return max;
+    }
+    // private methods
+}
@@ -0,0 +1,151 @@
+package ps.changeclassifier;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import ps.models.Change;
+import ps.utils.LRUCache;
+
+/**
+ * Results of the word-level checks (spelling and substitution) per pair of replaced and replacing text.
+ * <p>
+ * Both checks depend on nothing but the text before and after a change, so their results are shared between
+ * changes and documents. The cache is split into segments, each a bounded least-recently-used cache with its own
+ * lock, so that concurrent classifications rarely wait for each other.
+ */
+public class WordPairCache {
+    private static final char SEPARATOR = '\u0000';
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final LRUCache<String, Results>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor.
+     * <p>
+     * @param capacity Maximum number of cached pairs.
+     * @param segments Number of independently locked segments.
+     */
+    @SuppressWarnings("unchecked")
+    public WordPairCache(int capacity, int segments) {
+        this.segments = (LRUCache<String, Results>[]) new LRUCache<?, ?>[Math.max(1, segments)];
+        for (int i = 0; i < this.segments.length; ++i) {
+            this.segments[i] = new LRUCache<>(Math.max(1, capacity / this.segments.length));
+        }
+    }
+
+    // public methods
+    /**
+     * @param change Change between two words.
+     * @param check Computes the spelling result if it is not cached.
+     * @return Result of the spelling check of the change.
+     */
+    public int spelling(Change change, IntSupplier check) {
+        Results results = results(change);
+        int result = results.spelling;
+        if (result == UNKNOWN) {
+            this.misses.increment();
+            result = check.getAsInt();
+            results.spelling = result;
+        } else {
+            this.hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * @param change Change between two words.
+     * @param check Computes the substitution result if it is not cached.
+     * @return Result of the substitution check of the change.
+     */
+    public int substitution(Change change, IntSupplier check) {
+        Results results = results(change);
+        int result = results.substitution;
+        if (result == UNKNOWN) {
+            this.misses.increment();
+            result = check.getAsInt();
+            results.substitution = result;
+        } else {
+            this.hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of checks answered from the cache.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return Number of checks that had to be computed.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return Share of checks answered from the cache, 0 if there were none.
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return Number of cached pairs.
+     */
+    public int size() {
+        int size = 0;
+        for (LRUCache<String, Results> segment : this.segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all pairs and resets statistics.
+     */
+    public void clear() {
+        for (LRUCache<String, Results> segment : this.segments) {
+            segment.clear();
+        }
+        this.hits.reset();
+        this.misses.reset();
+    }
+
+    /**
+     * @return Statistics as a string.
+     * <p>
+     * Example: word pairs: 120 checks, 75.00% hits, 30 cached
+     */
+    public String toString() {
+        return "word pairs: " + (getHits() + getMisses()) + " checks, "
+                + String.format("%.2f", 100 * getHitRatio()) + "% hits, " + size() + " cached";
+    }
+    // public methods
+
+    // private methods
+    // Entry of the pair, created if it is not cached yet.
+    private Results results(Change change) {
+        String key = change.getBefore() + SEPARATOR + change.getAfter();
+        LRUCache<String, Results> segment = this.segments[(key.hashCode() & 0x7fffffff) % this.segments.length];
+        Results results = segment.get(key);
+        if (results == null) {
+            // a concurrent miss on the same pair at worst computes a result twice
+            results = new Results();
+            segment.put(key, results);
+        }
+        return results;
+    }
+    // private methods
+
+    // Results of both checks of a pair, UNKNOWN until computed.
+    private static class Results {
+        volatile int spelling = UNKNOWN;
+        volatile int substitution = UNKNOWN;
+    }
+}
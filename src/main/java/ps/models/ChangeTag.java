@@ -8,11 +8,13 @@ import ps.models.Change;
  * <ol>
  * <li>Change of type {@link Change}
  * <li>Change's class of type {@link Tag} 
+ * <li>Whether expensive analyses were skipped to meet a time budget
  * </ol>
  */
 public class ChangeTag {
     private Change change;
     private Tag tag;
+    private boolean degraded;
 
     /**
      * Enumeration of possible types of changes. Classes are derived from a user study among authors
@@ -67,6 +69,13 @@ public class ChangeTag {
         return this.tag;
     }
 
+    /**
+     * @return true, if expensive analyses were skipped and the tag is the best one found in time.
+     */
+    public boolean isDegraded() {
+        return this.degraded;
+    }
+
     /**
      * Sets change that happened in a document.
      */
@@ -81,12 +90,21 @@ public class ChangeTag {
         this.tag = tag;
     }
 
+    /**
+     * Marks the tag as the best one found before the time budget was used up.
+     */
+    public void setDegraded(boolean degraded) {
+        this.degraded = degraded;
+    }
+
     /**
      * @return Change and its classification as a string.
      * <p>
      * Example: [RELATED_TERM] Change(BEFORE: team ; AFTER: squad | [10 , 12])
+     * <p>
+     * Example of a degraded tag: [UNDEFINED, DEGRADED] Change(BEFORE: team ; AFTER: squad | [10 , 12])
      */
     public String toString() {
-        return "[" + this.tag.toString() + "] " + this.change.toString();
+        return "[" + this.tag.toString() + (this.degraded ? ", DEGRADED" : "") + "] " + this.change.toString();
     }
 }
\ No newline at end of file
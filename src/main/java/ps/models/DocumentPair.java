@@ -0,0 +1,80 @@
+package ps.models;
+
+/**
+ * Model for a pair of documents to be compared in a batch.
+ * <p>
+ * <ol>
+ * <li>Identifier of the pair</li>
+ * <li>Path to the original version</li>
+ * <li>Path to the modified version</li>
+ * </ol>
+ */
+public class DocumentPair {
+    private String id;
+    private String path1;
+    private String path2;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param id Identifier of the pair.
+     * @param path1 Path to the original version of the document.
+     * @param path2 Path to the modified version of the document.
+     */
+    public DocumentPair(String id, String path1, String path2) {
+        this.id = id;
+        this.path1 = path1;
+        this.path2 = path2;
+    }
+
+    /**
+     * @return Identifier of the pair.
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * @return Path to the original version.
+     */
+    public String getPath1() {
+        return this.path1;
+    }
+
+    /**
+     * @return Path to the modified version.
+     */
+    public String getPath2() {
+        return this.path2;
+    }
+
+    /**
+     * Sets identifier of the pair.
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Sets path to the original version.
+     */
+    public void setPath1(String path1) {
+        this.path1 = path1;
+    }
+
+    /**
+     * Sets path to the modified version.
+     */
+    public void setPath2(String path2) {
+        this.path2 = path2;
+    }
+
+    /**
+     * @return Pair as a string.
+     * <p>
+     * Example: DocumentPair(dna | dna_1.txt ; dna_2.txt)
+     */
+    public String toString() {
+        return "DocumentPair(" + id + " | " + path1 + " ; " + path2 + ")";
+    }
+}
@@ -0,0 +1,82 @@
+package ps.models;
+
+import ps.models.ChangeTag;
+
+/**
+ * Model for a classified change in a history of document versions.
+ * <p>
+ * <ol>
+ * <li>Revision, in which the change took place</li>
+ * <li>Classified change of type {@link ChangeTag}</li>
+ * <li>Change's position in the latest version of the document</li>
+ * </ol>
+ */
+public class RevisionTag {
+    private int revision;
+    private ChangeTag changeTag;
+    private int latestPos;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param revision Index of the version, in which the change was made (first revision is 1).
+     * @param changeTag Classified change between versions revision - 1 and revision.
+     * @param latestPos Position of the change in the latest version, -1 if it was overwritten later.
+     */
+    public RevisionTag(int revision, ChangeTag changeTag, int latestPos) {
+        this.revision = revision;
+        this.changeTag = changeTag;
+        this.latestPos = latestPos;
+    }
+
+    /**
+     * @return Index of the version, in which the change was made.
+     */
+    public int getRevision() {
+        return this.revision;
+    }
+
+    /**
+     * @return Classified change.
+     */
+    public ChangeTag getChangeTag() {
+        return this.changeTag;
+    }
+
+    /**
+     * @return Position of the change in the latest version, -1 if it was overwritten later.
+     */
+    public int getLatestPos() {
+        return this.latestPos;
+    }
+
+    /**
+     * Sets index of the version, in which the change was made.
+     */
+    public void setRevision(int revision) {
+        this.revision = revision;
+    }
+
+    /**
+     * Sets classified change.
+     */
+    public void setChangeTag(ChangeTag changeTag) {
+        this.changeTag = changeTag;
+    }
+
+    /**
+     * Sets position of the change in the latest version.
+     */
+    public void setLatestPos(int latestPos) {
+        this.latestPos = latestPos;
+    }
+
+    /**
+     * @return Revision, change and its position in the latest version as a string.
+     * <p>
+     * Example: r2 [RELATED_TERM] Change(BEFORE: team ; AFTER: squad | [10 , 12]) -> 15
+     */
+    public String toString() {
+        return "r" + this.revision + " " + this.changeTag.toString() + " -> " + this.latestPos;
+    }
+}
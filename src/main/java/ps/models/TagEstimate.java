@@ -0,0 +1,125 @@
+package ps.models;
+
+import org.json.JSONObject;
+
+import ps.models.ChangeTag.Tag;
+
+/**
+ * Model for a tag distribution estimated from a sample of changes.
+ * <p>
+ * <ol>
+ * <li>Number of changes in the document and number of classified ones</li>
+ * <li>Estimated share of each tag with the bounds of its confidence interval</li>
+ * </ol>
+ */
+public class TagEstimate {
+    private final int population;
+    private final int sampled;
+    private final double confidence;
+    private final double[] proportions;
+    private final double[] lower;
+    private final double[] upper;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param population Number of changes in the document.
+     * @param sampled Number of classified changes.
+     * @param confidence Confidence level of the intervals, e.g. 0.95.
+     * @param proportions Estimated share of each tag, indexed by ordinal.
+     * @param lower Lower bound of the share of each tag.
+     * @param upper Upper bound of the share of each tag.
+     */
+    public TagEstimate(int population, int sampled, double confidence, double[] proportions, double[] lower,
+            double[] upper) {
+        this.population = population;
+        this.sampled = sampled;
+        this.confidence = confidence;
+        this.proportions = proportions;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * @return Number of changes in the document.
+     */
+    public int getPopulation() {
+        return this.population;
+    }
+
+    /**
+     * @return Number of classified changes.
+     */
+    public int getSampled() {
+        return this.sampled;
+    }
+
+    /**
+     * @return Confidence level of the intervals.
+     */
+    public double getConfidence() {
+        return this.confidence;
+    }
+
+    /**
+     * @return Estimated share of the tag among all changes.
+     */
+    public double getProportion(Tag tag) {
+        return this.proportions[tag.ordinal()];
+    }
+
+    /**
+     * @return Lower bound of the share of the tag.
+     */
+    public double getLower(Tag tag) {
+        return this.lower[tag.ordinal()];
+    }
+
+    /**
+     * @return Upper bound of the share of the tag.
+     */
+    public double getUpper(Tag tag) {
+        return this.upper[tag.ordinal()];
+    }
+
+    /**
+     * @return Estimated number of changes with the tag.
+     */
+    public double getCount(Tag tag) {
+        return this.proportions[tag.ordinal()] * this.population;
+    }
+
+    /**
+     * @return Estimate as a JSON object with the share and interval of every tag.
+     * <p>
+     * Example: {"changes":5000,"sampled":240,"confidence":0.95,"tags":{"SPELLING":{"proportion":0.31,
+     * "lower":0.26,"upper":0.37},...}}
+     */
+    public JSONObject toJSON() {
+        JSONObject tags = new JSONObject();
+        for (Tag tag : Tag.values()) {
+            tags.put(tag.toString(), new JSONObject().put("proportion", getProportion(tag))
+                    .put("lower", getLower(tag)).put("upper", getUpper(tag)));
+        }
+        return new JSONObject().put("changes", this.population).put("sampled", this.sampled)
+                .put("confidence", this.confidence).put("tags", tags);
+    }
+
+    /**
+     * @return Estimate as a table with one line per tag found in the sample.
+     * <p>
+     * Example: SPELLING              31.2% [ 25.8%,  37.1%]  ~1560
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d of %d changes classified, %.0f%% confidence intervals%n", this.sampled,
+                this.population, 100 * this.confidence));
+        for (Tag tag : Tag.values()) {
+            if (getProportion(tag) > 0) {
+                sb.append(String.format("%-20s %6.1f%% [%5.1f%%, %5.1f%%]  ~%.0f%n", tag, 100 * getProportion(tag),
+                        100 * getLower(tag), 100 * getUpper(tag), getCount(tag)));
+            }
+        }
+        return sb.toString();
+    }
+}
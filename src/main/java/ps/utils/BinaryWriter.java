@@ -0,0 +1,90 @@
+package ps.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+
+/**
+ * Writes classified changes as compact, length-prefixed binary records. All numbers are big-endian.
+ * <p>
+ * Header: magic bytes "NCB1", one byte with flags (1 - offsets only).
+ * <p>
+ * Record:
+ * <ol>
+ * <li>int: length of the rest of the record in bytes</li>
+ * <li>byte: ordinal of the tag in {@link ChangeTag.Tag}</li>
+ * <li>byte: flags (1 - degraded)</li>
+ * <li>int: position in the original version</li>
+ * <li>int: position in the modified version</li>
+ * <li>int: length of the text before the change in characters</li>
+ * <li>int: length of the text after the change in characters</li>
+ * <li>unless offsets only: int length and UTF-8 bytes of the text before, then of the text after the change</li>
+ * </ol>
+ */
+public class BinaryWriter extends ChangeTagWriter {
+    private static final byte[] MAGIC = { 'N', 'C', 'B', '1' };
+    private static final int FIXED_LENGTH = 2 + 4 * 4;
+
+    private final DataOutputStream out;
+    private final boolean offsetsOnly;
+    private boolean started = false;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param out Stream to write records to.
+     * @param offsetsOnly true, if text before and after changes is to be left out.
+     */
+    public BinaryWriter(OutputStream out, boolean offsetsOnly) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.offsetsOnly = offsetsOnly;
+    }
+
+    @Override
+    public void write(ChangeTag ct) throws IOException {
+        if (!this.started) {
+            writeHeader();
+        }
+        Change c = ct.getChange();
+        byte[] before = null;
+        byte[] after = null;
+        int length = FIXED_LENGTH;
+        if (!this.offsetsOnly) {
+            before = c.getBefore().getBytes(StandardCharsets.UTF_8);
+            after = c.getAfter().getBytes(StandardCharsets.UTF_8);
+            length += 4 + before.length + 4 + after.length;
+        }
+        this.out.writeInt(length);
+        this.out.writeByte(ct.getTag().ordinal());
+        this.out.writeByte(ct.isDegraded() ? 1 : 0);
+        this.out.writeInt(c.getPos1());
+        this.out.writeInt(c.getPos2());
+        this.out.writeInt(c.getBefore().length());
+        this.out.writeInt(c.getAfter().length());
+        if (!this.offsetsOnly) {
+            this.out.writeInt(before.length);
+            this.out.write(before);
+            this.out.writeInt(after.length);
+            this.out.write(after);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.started) {
+            writeHeader();
+        }
+        this.out.close();
+    }
+
+    private void writeHeader() throws IOException {
+        this.out.write(MAGIC);
+        this.out.writeByte(this.offsetsOnly ? 1 : 0);
+        this.started = true;
+    }
+}
@@ -0,0 +1,140 @@
+package ps.utils;
+
+import java.util.Arrays;
+
+/**
+ * Longest common subsequence of short texts, computed bit-parallel.
+ * <p>
+ * Each column of the dynamic programming table of the longest common subsequence is a vector of bits, one per
+ * character of the first text, packed into longs (Hyyro's formulation of the bit-vector algorithm of Allison and
+ * Dix). A column costs a few word operations per 64 characters instead of one step per character, and only the
+ * current column is kept. Texts of up to 64 characters, e.g. words, need a single long and no allocation.
+ * <p>
+ * Only used for bounds and features of short texts, e.g. to rule out spelling corrections. It does not replace
+ * diff_match_patch for edit scripts: an LCS traceback breaks ties differently and would change the changes found.
+ */
+public class BitParallelLcs {
+    /**
+     * Maximum length of the first text, up to which the bit-parallel computation is used.
+     */
+    public static final int MAX_LENGTH = 512;
+
+    private BitParallelLcs() {
+    }
+
+    // public methods
+    /**
+     * @param text1 First text.
+     * @param text2 Second text.
+     * @return Length of the longest common subsequence of both texts.
+     */
+    public static int lcs(String text1, String text2) {
+        int m = text1.length();
+        if (m == 0 || text2.isEmpty()) {
+            return 0;
+        }
+        if (m <= 64) {
+            return lcs64(text1, text2);
+        }
+        int words = (m + 63) >>> 6;
+        char[] alphabet = alphabet(text1);
+        long[] peq = matchVectors(text1, alphabet, words);
+        long[] v = new long[words];
+        Arrays.fill(v, -1L);
+        for (int j = 0; j < text2.length(); ++j) {
+            int c = Arrays.binarySearch(alphabet, text2.charAt(j));
+            if (c >= 0) {
+                step(v, peq, c * words);
+            }
+        }
+        return zeros(v, m);
+    }
+
+    /**
+     * Lower bound of the distance diff_match_patch computes from its edit script of two texts
+     * (diff_levenshtein): any edit script deletes at least the characters of the first text and inserts at least
+     * those of the second text that are not part of a longest common subsequence.
+     * <br>
+     * @param text1 First text, not longer than {@link #MAX_LENGTH}.
+     * @param text2 Second text.
+     * @return Larger of the numbers of deletions and insertions of a minimal edit script.
+     */
+    public static int minDistance(String text1, String text2) {
+        int common = lcs(text1, text2);
+        return Math.max(text1.length() - common, text2.length() - common);
+    }
+    // public methods
+
+    // private methods
+    // Longest common subsequence for a first text of up to 64 characters, in a single long without allocation.
+    private static int lcs64(String text1, String text2) {
+        int m = text1.length();
+        long v = -1L;
+        for (int j = 0; j < text2.length(); ++j) {
+            char c = text2.charAt(j);
+            long match = 0;
+            for (int i = 0; i < m; ++i) {
+                if (text1.charAt(i) == c) {
+                    match |= 1L << i;
+                }
+            }
+            long u = v & match;
+            v = (v + u) | (v - u);
+        }
+        long mask = m == 64 ? -1L : (1L << m) - 1;
+        return Long.bitCount(~v & mask);
+    }
+
+    // Distinct characters of the text in ascending order.
+    private static char[] alphabet(String text) {
+        char[] chars = text.toCharArray();
+        Arrays.sort(chars);
+        int n = 0;
+        for (int i = 0; i < chars.length; ++i) {
+            if (n == 0 || chars[n - 1] != chars[i]) {
+                chars[n++] = chars[i];
+            }
+        }
+        return Arrays.copyOf(chars, n);
+    }
+
+    // For each character of the alphabet, the bits of the positions in the text where it occurs.
+    private static long[] matchVectors(String text, char[] alphabet, int words) {
+        long[] peq = new long[alphabet.length * words];
+        for (int i = 0; i < text.length(); ++i) {
+            int c = Arrays.binarySearch(alphabet, text.charAt(i));
+            peq[c * words + (i >>> 6)] |= 1L << i;
+        }
+        return peq;
+    }
+
+    /*
+    Next column: V' = (V + (V & M)) | (V & ~M), with M the match vector of the character.
+    Words are added with carry from the lowest to the highest.
+    */
+    private static void step(long[] column, long[] peq, int p) {
+        long carry = 0;
+        for (int w = 0; w < column.length; ++w) {
+            long v = column[w];
+            long u = v & peq[p + w];
+            long sum = v + u + carry;
+            carry = Long.compareUnsigned(sum, v) < 0 || (carry != 0 && sum == v) ? 1 : 0;
+            column[w] = sum | (v - u);
+        }
+    }
+
+    // Number of zeros among the first m bits of the column, i.e. the length of the longest common subsequence.
+    private static int zeros(long[] column, int m) {
+        int zeros = 0;
+        int w = 0;
+        for (; (w + 1) << 6 <= m; ++w) {
+            zeros += Long.bitCount(~column[w]);
+        }
+        int rest = m & 63;
+        if (rest > 0) {
+            zeros += Long.bitCount(~column[w] & ((1L << rest) - 1));
+        }
+        return zeros;
+    }
+    // private methods
+}
@@ -0,0 +1,92 @@
+package ps.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+
+/**
+ * Writes classified changes to a stream as they are produced.
+ * <p>
+ * Can be passed as a consumer to {@link ps.changeclassifier.ChangeClassifier}, which passes each change as detected
+ * next to its tag; I/O errors are then rethrown as {@link UncheckedIOException}.
+ */
+public abstract class ChangeTagWriter implements BiConsumer<Change, ChangeTag>, Closeable {
+
+    /**
+     * Supported output formats.
+     * <ul>
+     * <li>TEXT: one human-readable line per change.</li>
+     * <li>NDJSON: one JSON object per line with tag, positions and text before and after the change.</li>
+     * <li>BINARY: length-prefixed binary records, see {@link BinaryWriter}.</li>
+     * <li>OFFSETS: binary records without text, see {@link BinaryWriter}.</li>
+     * <li>SUMMARY: one JSON object with counts per tag and paragraph, see {@link SummaryWriter}.</li>
+     * </ul>
+     */
+    public static enum Format {
+        TEXT, NDJSON, BINARY, OFFSETS, SUMMARY
+    }
+
+    /**
+     * @param format output format.
+     * @param out stream to write to.
+     * @return writer of the given format.
+     */
+    public static ChangeTagWriter create(Format format, OutputStream out) {
+        return create(format, out, "");
+    }
+
+    /**
+     * @param format output format.
+     * @param out stream to write to.
+     * @param text1 original version of the document, used by formats that refer to its paragraphs.
+     * @return writer of the given format.
+     */
+    public static ChangeTagWriter create(Format format, OutputStream out, String text1) {
+        switch (format) {
+        case NDJSON:
+            return new NDJSONWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        case BINARY:
+            return new BinaryWriter(out, false);
+        case OFFSETS:
+            return new BinaryWriter(out, true);
+        case SUMMARY:
+            return new SummaryWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), text1);
+        default:
+            return new TextWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes a classified change.
+     */
+    public abstract void write(ChangeTag tag) throws IOException;
+
+    /**
+     * Writes a classified change. Formats that need the change as detected, not the extension the tag refers to,
+     * override it.
+     * <br>
+     * @param change change as detected.
+     * @param tag tag of the change.
+     */
+    public void write(Change change, ChangeTag tag) throws IOException {
+        write(tag);
+    }
+
+    /**
+     * Writes a classified change, rethrowing I/O errors unchecked.
+     */
+    public void accept(Change change, ChangeTag tag) {
+        try {
+            write(change, tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
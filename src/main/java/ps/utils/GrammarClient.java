@@ -0,0 +1,340 @@
+package ps.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous client of a LanguageTool server.
+ * <p>
+ * Requests are sent from virtual threads where the JDK provides them, otherwise from a fixed number of threads;
+ * a semaphore bounds the number of concurrent requests either way. Connections are kept alive and reused between
+ * requests. Failed requests are retried with exponential backoff; after a number of consecutive failures the
+ * circuit opens and requests fail immediately until the server is tried again. Only failures that may go away
+ * on retry are retried and counted: connection failures, timeouts and the answers 429 and 5xx. Other client
+ * errors fail the request at once and leave the circuit closed.
+ * <p>
+ * Settings are read from system properties:
+ * <ul>
+ * <li>nutcracker.languagetool.url: endpoint, http://localhost:8081/v2/check by default.</li>
+ * <li>nutcracker.languagetool.concurrency: maximum number of concurrent requests, 4 by default.</li>
+ * <li>nutcracker.languagetool.connectTimeout, nutcracker.languagetool.readTimeout: in milliseconds, 2000 and
+ * 10000 by default.</li>
+ * <li>nutcracker.languagetool.retries: retries of a failed request, 2 by default.</li>
+ * <li>nutcracker.languagetool.backoff: delay before the first retry in milliseconds, doubled for each further
+ * retry, 100 by default.</li>
+ * <li>nutcracker.languagetool.failureThreshold: consecutive failures that open the circuit, 5 by default.</li>
+ * <li>nutcracker.languagetool.openMillis: time the circuit stays open, 30000 by default.</li>
+ * </ul>
+ * The rules the server runs are set by a {@link GrammarProfile}, read from further properties.
+ */
+public class GrammarClient {
+    /**
+     * Default endpoint of the LanguageTool server.
+     */
+    public static final String DEFAULT_URL = "http://localhost:8081/v2/check";
+    private static final String PREFIX = "nutcracker.languagetool.";
+
+    private final URL url;
+    private final int concurrency;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int retries;
+    private final long backoff;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final GrammarProfile profile;
+    private final String parameters;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    // circuit breaker
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    /**
+     * Constructor.
+     * <p>
+     * @param url Endpoint of the LanguageTool server.
+     * @param concurrency Maximum number of concurrent requests.
+     * @param connectTimeout Timeout of connecting to the server in milliseconds.
+     * @param readTimeout Timeout of waiting for a response in milliseconds.
+     * @param retries Number of retries of a failed request.
+     * @param backoff Delay before the first retry in milliseconds.
+     * @param failureThreshold Number of consecutive failures that open the circuit.
+     * @param openMillis Time in milliseconds, during which requests fail immediately once the circuit is open.
+     */
+    public GrammarClient(String url, int concurrency, int connectTimeout, int readTimeout, int retries,
+            long backoff, int failureThreshold, long openMillis) throws IOException {
+        this(url, concurrency, connectTimeout, readTimeout, retries, backoff, failureThreshold, openMillis,
+                GrammarProfile.ALL);
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * @param url Endpoint of the LanguageTool server.
+     * @param concurrency Maximum number of concurrent requests.
+     * @param connectTimeout Timeout of connecting to the server in milliseconds.
+     * @param readTimeout Timeout of waiting for a response in milliseconds.
+     * @param retries Number of retries of a failed request.
+     * @param backoff Delay before the first retry in milliseconds.
+     * @param failureThreshold Number of consecutive failures that open the circuit.
+     * @param openMillis Time in milliseconds, during which requests fail immediately once the circuit is open.
+     * @param profile Rules the server runs.
+     */
+    public GrammarClient(String url, int concurrency, int connectTimeout, int readTimeout, int retries,
+            long backoff, int failureThreshold, long openMillis, GrammarProfile profile) throws IOException {
+        this.url = new URL(url);
+        this.concurrency = Math.max(1, concurrency);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.retries = Math.max(0, retries);
+        this.backoff = backoff;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.profile = profile;
+        this.parameters = "&language=en-US" + profile.toParameters();
+        // idle connections kept alive per server, must cover all concurrent requests
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(Math.max(5, this.concurrency)));
+        }
+        this.permits = new Semaphore(this.concurrency);
+        ExecutorService virtual = VirtualThreads.newExecutor();
+        if (virtual != null) {
+            this.executor = virtual;
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(this.concurrency, r -> {
+                Thread t = new Thread(r, "languagetool-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * @return Client configured by system properties.
+     */
+    public static GrammarClient fromProperties() throws IOException {
+        return new GrammarClient(System.getProperty(PREFIX + "url", DEFAULT_URL), intProperty("concurrency", 4),
+                intProperty("connectTimeout", 2000), intProperty("readTimeout", 10000), intProperty("retries", 2),
+                intProperty("backoff", 100), intProperty("failureThreshold", 5),
+                intProperty("openMillis", 30000), GrammarProfile.fromProperties());
+    }
+
+    /**
+     * @param sentence Sentence to be checked.
+     * @return Future of the JSON response with a list of matched rules. Completes exceptionally if the server
+     * could not be reached, answered with an error or the circuit is open.
+     */
+    public CompletableFuture<String> check(String sentence) {
+        if (!allowRequest()) {
+            CompletableFuture<String> open = new CompletableFuture<>();
+            open.completeExceptionally(new IOException("LanguageTool circuit is open"));
+            return open;
+        }
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    result.complete(requestWithRetries(sentence));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // a probe that is never sent must not keep the circuit from letting the next one through
+            this.probing.set(false);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return Maximum number of concurrent requests.
+     */
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+
+    /**
+     * @return Rules the server runs.
+     */
+    public GrammarProfile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * @return true, if requests currently fail immediately.
+     */
+    public boolean isOpen() {
+        return System.currentTimeMillis() < this.openUntil.get();
+    }
+
+    /**
+     * Stops the threads sending requests. Pending requests are still sent.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    // private methods
+    // Closed circuit lets everything through, open circuit nothing; after the open period one probe is let through.
+    private boolean allowRequest() {
+        if (this.failures.get() < this.failureThreshold) {
+            return true;
+        }
+        if (isOpen()) {
+            return false;
+        }
+        return this.probing.compareAndSet(false, true);
+    }
+
+    /*
+    Sends a request until it is answered or the retries are used up. However it ends, even if interrupted while
+    waiting, a running probe is over afterwards.
+    */
+    private String requestWithRetries(String sentence) throws IOException, InterruptedException {
+        try {
+            return sendAttempts(sentence);
+        } finally {
+            this.probing.set(false);
+        }
+    }
+
+    private String sendAttempts(String sentence) throws IOException, InterruptedException {
+        IOException last = null;
+        for (int attempt = 0; attempt <= this.retries; ++attempt) {
+            if (attempt > 0) {
+                // exponential backoff with jitter
+                long delay = this.backoff << (attempt - 1);
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            }
+            try {
+                String response;
+                this.permits.acquire();
+                try {
+                    response = request(sentence);
+                } finally {
+                    this.permits.release();
+                }
+                this.failures.set(0);
+                return response;
+            } catch (RetryableException e) {
+                last = e;
+            } catch (IOException e) {
+                // client errors are not going to change on retry, but the server answered and stays trusted
+                this.failures.set(0);
+                throw e;
+            }
+        }
+        onFailure();
+        throw last;
+    }
+
+    private void onFailure() {
+        if (this.failures.incrementAndGet() >= this.failureThreshold) {
+            this.openUntil.set(System.currentTimeMillis() + this.openMillis);
+        }
+    }
+
+    /*
+    Sends one request. The response is read completely and the connection is not disconnected,
+    so that it is returned to the keep-alive cache and reused.
+    */
+    private String request(String sentence) throws IOException {
+        byte[] body = ("text=" + URLEncoder.encode(sentence, "UTF-8") + this.parameters)
+                .getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) this.url.openConnection();
+            connection.setConnectTimeout(this.connectTimeout);
+            connection.setReadTimeout(this.readTimeout);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            throw new RetryableException(e);
+        }
+
+        int status;
+        try {
+            status = connection.getResponseCode();
+        } catch (IOException e) {
+            throw new RetryableException(e);
+        }
+        if (status == HttpURLConnection.HTTP_OK) {
+            try {
+                return readFully(connection.getInputStream());
+            } catch (IOException e) {
+                throw new RetryableException(e);
+            }
+        }
+        String error;
+        try {
+            error = readFully(connection.getErrorStream());
+        } catch (IOException e) {
+            // the status decides whether to retry, even if the body of the error is lost
+            error = e.toString();
+        }
+        IOException failure = new IOException("LanguageTool answered " + status + ": " + error);
+        if (status == 429 || status >= 500) {
+            throw new RetryableException(failure);
+        }
+        throw failure;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int intProperty(String name, int def) {
+        try {
+            return Integer.parseInt(System.getProperty(PREFIX + name, Integer.toString(def)));
+        } catch (NumberFormatException nfe) {
+            return def;
+        }
+    }
+
+    // Failure that may go away when the request is repeated.
+    private static class RetryableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RetryableException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+    // private methods
+}
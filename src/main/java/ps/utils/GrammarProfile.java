@@ -0,0 +1,122 @@
+package ps.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Rules LanguageTool is asked to run, sent along with every request.
+ * <p>
+ * The classifier only needs to know whether a sentence has issues other than misspellings, so the default profile
+ * "classifier" turns off the spell checker, by far the most expensive rule, and checks the modified version of a
+ * sentence only if the original version has an issue. The profile "all" runs every rule and checks both versions,
+ * as LanguageTool does by default.
+ * <p>
+ * Settings are read from system properties:
+ * <ul>
+ * <li>nutcracker.languagetool.profile: classifier (default) or all.</li>
+ * <li>nutcracker.languagetool.disabledRules, nutcracker.languagetool.disabledCategories: comma-separated IDs of
+ * rules and categories to turn off, replacing those of the profile.</li>
+ * <li>nutcracker.languagetool.enabledCategories: comma-separated IDs of categories; if set, only rules of these
+ * categories run.</li>
+ * </ul>
+ */
+public class GrammarProfile {
+    /**
+     * All rules, both versions of a sentence are checked.
+     */
+    public static final GrammarProfile ALL = new GrammarProfile("all", "", "", "", false);
+    /**
+     * All rules but the spell checker, the modified version is checked only if the original one has an issue.
+     */
+    public static final GrammarProfile CLASSIFIER = new GrammarProfile("classifier", "MORFOLOGIK_RULE_EN_US", "", "",
+            true);
+    private static final String PREFIX = "nutcracker.languagetool.";
+
+    private final String name;
+    private final String disabledRules;
+    private final String disabledCategories;
+    private final String enabledCategories;
+    private final boolean shortCircuit;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param name Name of the profile.
+     * @param disabledRules Comma-separated IDs of rules to turn off, may be empty.
+     * @param disabledCategories Comma-separated IDs of categories to turn off, may be empty.
+     * @param enabledCategories Comma-separated IDs of the only categories to run, empty for all.
+     * @param shortCircuit true, if the modified version of a sentence is only checked if the original has an issue.
+     */
+    public GrammarProfile(String name, String disabledRules, String disabledCategories, String enabledCategories,
+            boolean shortCircuit) {
+        this.name = name;
+        this.disabledRules = disabledRules;
+        this.disabledCategories = disabledCategories;
+        this.enabledCategories = enabledCategories;
+        this.shortCircuit = shortCircuit;
+    }
+
+    // public methods
+    /**
+     * @return Profile configured by system properties.
+     */
+    public static GrammarProfile fromProperties() {
+        GrammarProfile base = System.getProperty(PREFIX + "profile", CLASSIFIER.name).equals(ALL.name) ? ALL
+                : CLASSIFIER;
+        return new GrammarProfile(base.name, System.getProperty(PREFIX + "disabledRules", base.disabledRules),
+                System.getProperty(PREFIX + "disabledCategories", base.disabledCategories),
+                System.getProperty(PREFIX + "enabledCategories", base.enabledCategories), base.shortCircuit);
+    }
+
+    /**
+     * @return Name of the profile.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return true, if the modified version of a sentence is only checked if the original version has an issue.
+     */
+    public boolean isShortCircuit() {
+        return this.shortCircuit;
+    }
+
+    /**
+     * @return Parameters of a request to LanguageTool, each preceded by '&amp;', empty if every rule runs.
+     */
+    public String toParameters() {
+        StringBuilder params = new StringBuilder();
+        append(params, "disabledRules", this.disabledRules);
+        append(params, "disabledCategories", this.disabledCategories);
+        if (append(params, "enabledCategories", this.enabledCategories)) {
+            params.append("&enabledOnly=true");
+        }
+        return params.toString();
+    }
+
+    /**
+     * @return Profile as a string.
+     * <p>
+     * Example: classifier: disabledRules=MORFOLOGIK_RULE_EN_US
+     */
+    public String toString() {
+        String params = toParameters();
+        return this.name + (params.isEmpty() ? "" : ": " + params.substring(1).replace("&", ", "));
+    }
+    // public methods
+
+    // private methods
+    private static boolean append(StringBuilder params, String name, String value) {
+        if (value.trim().isEmpty()) {
+            return false;
+        }
+        try {
+            params.append('&').append(name).append('=').append(URLEncoder.encode(value.trim(), "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+    // private methods
+}
@@ -1,20 +1,20 @@
 package ps.utils;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.StringReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.BreakIterator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
-import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -22,13 +22,12 @@ import java.util.stream.Collectors;
 import com.knowledgebooks.nlp.fasttag.FastTag;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.StopFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
-import edu.cmu.lti.lexical_db.ILexicalDatabase;
-import edu.cmu.lti.lexical_db.NictWordNet;
 import edu.cmu.lti.ws4j.impl.JiangConrath;
 import edu.cmu.lti.ws4j.util.WS4JConfiguration;
 
@@ -38,8 +37,18 @@ import edu.cmu.lti.ws4j.util.WS4JConfiguration;
 public class LP {
     // Dictionary, imported from resources/dictionary/dict[size].txt
     private static final TreeSet<String> dictionary = new TreeSet<>();
-    // WordNet database
-    private static ILexicalDatabase db = new NictWordNet();
+    private static volatile boolean dictionaryLoaded = false;
+    private static final ReentrantLock DICTIONARY_LOCK = new ReentrantLock();
+    // Client of LanguageTool server, created on first use
+    private static volatile GrammarClient grammarClient;
+    // Responses of LanguageTool, shared between versions of a document
+    private static final LRUCache<String, String> grammarCache = new LRUCache<>(4096);
+    // Similarity scores of text fragments, shared between versions of a document
+    private static final LRUCache<String, Double> similarityCache = new LRUCache<>(4096);
+    // IDs of lemmatized words with WS4J POS-tags
+    private static final SymbolTable terms = new SymbolTable();
+    // Jiang-Conrath relatedness of unordered pairs of term IDs, shared between paragraphs
+    private static final LRUCache<Long, Double> relatednessCache = new LRUCache<>(131072);
 
     // public methods
     /**
@@ -93,79 +102,12 @@ public class LP {
      * @return true, if a word is in a dictionary, false, otherwise.
      */
     public static boolean inDictionary(String word) {
-        if (dictionary.isEmpty()) {
+        if (!dictionaryLoaded) {
             fillDictionary();
         }
         return dictionary.contains(word);
     }
 
-    /**
-     * @param word Word to be stemmed.
-     * @param pos POS-tag to be considered while stemming and to be modified.
-     * @return A pair [stem, pos]
-     */
-    public static ArrayList<String> stem(String word, String pos) {
-        ArrayList<String> result = new ArrayList<>(2);
-        result.add(word);
-        result.add(pos);
-        if (pos.startsWith("NN") || pos.startsWith("CD")) {
-            if (pos.equals("NNS")) {
-                if (word.endsWith("s"))
-                    result.set(0, word.substring(0, word.length() - 1));
-            } else if (pos.equals("NNP")) {
-                result.set(0, word.substring(0, 1).toUpperCase() + word.substring(1));
-            } else if (pos.equals("NNPS")) {
-                String tmp = word;
-                if (word.endsWith("s"))
-                    tmp = word.substring(0, word.length() - 1);
-                result.set(0, tmp.substring(0, 1).toUpperCase() + tmp.substring(1));
-            } else {
-                result.set(0, word);
-            }
-            result.set(1, "n");
-        } else if (pos.startsWith("VB")) {
-            String tmp = word;
-            if (pos.equals("VBD") || pos.equals("VBN")) {
-                if (word.endsWith("ed")) {
-                    tmp = word.substring(0, word.length() - 2);
-                    if (tmp.endsWith("i")) {
-                        tmp = tmp.substring(0, tmp.length() - 1) + "y";
-                    } else if (tmp.length() > 1 && tmp.charAt(tmp.length() - 1) == tmp.charAt(tmp.length() - 2)) {
-                        tmp = tmp.substring(0, tmp.length() - 1);
-                    } else if (addE(tmp)) {
-                        tmp += "e";
-                    }
-                }
-            } else if (pos.equals("VBG")) {
-                if (word.endsWith("ing")) {
-                    tmp = word.substring(0, word.length() - 3);
-                    if (tmp.length() > 2) {
-                        if (tmp.charAt(tmp.length() - 2) == tmp.charAt(tmp.length() - 3)) {
-                            tmp = tmp.substring(0, tmp.length() - 1);
-                        }
-                    }
-                }
-            }
-            result.set(0, tmp);
-            result.set(1, "v");
-        } else if (pos.startsWith("JJ"))
-
-        {
-            result.set(0, word);
-            result.set(1, "a");
-        } else if (pos.startsWith("RB")) {
-            result.set(0, word);
-            result.set(1, "r");
-        } else if (pos.startsWith("MD")) {
-            result.set(0, word);
-            result.set(1, "v");
-        } else {
-            result.set(0, word);
-            result.set(1, null);
-        }
-        return result;
-    }
-
     /**
      * @param text initial text.
      * @param refPos1 left-most position.
@@ -295,44 +237,91 @@ public class LP {
      * @return JSON in a form of string with a list of matched rules. For more info @see https://languagetool.org/http-api/swagger-ui/#!/default/post_check
      */
     public static String checkGrammar(String sentence) {
-        HttpURLConnection connection = null;
-        String urlParameters = "text=" + sentence + "&language=en-US";
+        return checkGrammar(sentence, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param sentence Sentence to be checked.
+     * @param timeout Maximum time in milliseconds to wait for LanguageTool server.
+     * @return JSON in a form of string with a list of matched rules, null if the server did not answer in time.
+     */
+    public static String checkGrammar(String sentence, int timeout) {
+        if (timeout <= 0) {
+            return grammarCache.get(sentence);
+        }
         try {
-            //Create connection
-            URL url = new URL("http://localhost:8081/v2/check");
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-
-            connection.setRequestProperty("Content-Length", Integer.toString(urlParameters.getBytes().length));
-            connection.setRequestProperty("Content-Language", "en-US");
-
-            connection.setUseCaches(false);
-            connection.setDoOutput(true);
-
-            //Send request
-            DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
-            wr.writeBytes(urlParameters);
-            wr.close();
-
-            //Get Response  
-            InputStream is = connection.getInputStream();
-            BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-            StringBuffer response = new StringBuffer(); // or StringBuffer if Java version 5+
-            String line;
-            while ((line = rd.readLine()) != null) {
-                response.append(line);
-                response.append('\r');
-            }
-            rd.close();
-            return response.toString();
-        } catch (Exception e) {
+            return checkGrammarAsync(sentence).get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param sentence Sentence to be checked.
+     * @return Future of JSON in a form of string with a list of matched rules. Completes with null if the server
+     * could not be reached. Successful responses are cached.
+     */
+    public static CompletableFuture<String> checkGrammarAsync(String sentence) {
+        String cached = grammarCache.get(sentence);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        GrammarClient client;
+        try {
+            client = getGrammarClient();
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return client.check(sentence).handle((response, e) -> {
+            if (response != null) {
+                grammarCache.put(sentence, response);
+            }
+            return response;
+        });
+    }
+
+    /**
+     * @return Client of LanguageTool server, configured by system properties unless set explicitly.
+     */
+    public static GrammarClient getGrammarClient() throws IOException {
+        GrammarClient client = grammarClient;
+        if (client == null) {
+            synchronized (LP.class) {
+                client = grammarClient;
+                if (client == null) {
+                    client = GrammarClient.fromProperties();
+                    grammarClient = client;
+                }
             }
         }
+        return client;
+    }
+
+    /**
+     * @return Rules LanguageTool runs, as configured for the current client.
+     */
+    public static GrammarProfile getGrammarProfile() {
+        try {
+            return getGrammarClient().getProfile();
+        } catch (IOException e) {
+            return GrammarProfile.fromProperties();
+        }
+    }
+
+    /**
+     * Replaces the client of LanguageTool server, e.g. to point at another endpoint. Cached responses are dropped,
+     * as they depend on the rules of the client.
+     */
+    public static void setGrammarClient(GrammarClient client) {
+        GrammarClient old = grammarClient;
+        grammarClient = client;
+        if (old != null && old != client) {
+            old.shutdown();
+            grammarCache.clear();
+        }
     }
 
     /**
@@ -351,6 +340,53 @@ public class LP {
      * </ol>
      */
     public static double semanticSimilarity(String before, String after) {
+        String key = before + '\u0000' + after;
+        Double cached = similarityCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        double sim = computeSimilarity(before, after);
+        similarityCache.put(key, sim);
+        return sim;
+    }
+
+    /**
+     * @param terms1 stemmed words with WS4J POS-tags, e.g. "run#v".
+     * @param terms2 stemmed words with WS4J POS-tags.
+     * @return Jiang-Conrath relatedness of each pair of words, not normalized. Double.MAX_VALUE for identical
+     * concepts. Scores of pairs are cached.
+     */
+    public static double[][] relatednessMatrix(String[] terms1, String[] terms2) {
+        if (terms1.length == 0 || terms2.length == 0) {
+            return new double[terms1.length][terms2.length];
+        }
+        WS4JConfiguration.getInstance().setMFS(false);
+        JiangConrath jc = new JiangConrath(WordNet.get());
+        int[] ids2 = new int[terms2.length];
+        for (int j = 0; j < terms2.length; ++j) {
+            ids2[j] = terms.id(terms2[j]);
+        }
+        double[][] scores = new double[terms1.length][terms2.length];
+        for (int i = 0; i < terms1.length; ++i) {
+            int id1 = terms.id(terms1[i]);
+            for (int j = 0; j < terms2.length; ++j) {
+                scores[i][j] = relatedness(jc, id1, ids2[j]);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Drops cached grammar checks, similarity and relatedness scores.
+     */
+    public static void clearCaches() {
+        grammarCache.clear();
+        similarityCache.clear();
+        relatednessCache.clear();
+    }
+
+    // Computes Fernando and Stevenson similarity score without consulting the cache.
+    private static double computeSimilarity(String before, String after) {
         ArrayList<String> words1 = LP.tokenizeStop(before, true);
         ArrayList<String> words2 = LP.tokenizeStop(after, true);
 
@@ -367,58 +403,24 @@ public class LP {
 
         // assign each word its tag for better similarity scores
         for (int i = 0; i < words1.size(); ++i) {
-            ArrayList<String> wp = LP.stem(words1.get(i), tags1.get(i));
-            words1.set(i, wp.get(0) + "#" + wp.get(1));
+            words1.set(i, Lemmatizer.lemmatize(words1.get(i), tags1.get(i)).getTerm());
         }
 
         for (int i = 0; i < words2.size(); ++i) {
-            ArrayList<String> wp = LP.stem(words2.get(i), tags2.get(i));
-            words2.set(i, wp.get(0) + "#" + wp.get(1));
+            words2.set(i, Lemmatizer.lemmatize(words2.get(i), tags2.get(i)).getTerm());
         }
 
-        Set<String> wd1 = new TreeSet<String>(words1);
-        Set<String> wd2 = new TreeSet<String>(words2);
-        Set<String> w = new TreeSet<>(wd1);
-        w.addAll(wd2);
-
-        // create a sorted vector of words
-        ArrayList<String> words = new ArrayList<>(w);
-        words.sort((o1, o2) -> o1.compareTo(o2));
-
-        // represent first sentence as a vector
-        double[] a = words.stream().mapToDouble(word -> {
-            if (wd1.contains(word)) {
-                return 1.0;
-            } else {
-                return 0.0;
-            }
-        }).toArray();
-
-        // represent second sentence as a vector
-        double[] b = words.stream().mapToDouble(word -> {
-            if (wd2.contains(word)) {
-                return 1.0;
-            } else {
-                return 0.0;
-            }
-        }).toArray();
+        // represent sentences as ascending lists of term IDs
+        int[] a = terms.distinctIds(words1);
+        int[] b = terms.distinctIds(words2);
+        int[] w = union(a, b);
 
-        // calculte similarity matrix
+        // calculate normalized and thresholded similarity matrix of all terms
         WS4JConfiguration.getInstance().setMFS(false);
-        double[][] W = new JiangConrath(db).getNormalizedSimilarityMatrix(w.toArray(new String[w.size()]),
-                w.toArray(new String[w.size()]));
-
-        for (int i = 0; i < W.length; ++i) {
-            for (int j = 0; j < W[0].length; ++j) {
-                if (W[i][j] < 0.8) {
-                    W[i][j] = 0;
-                }
-            }
-        }
+        float[] W = similarityMatrix(new JiangConrath(WordNet.get()), w);
 
         // calculate similarity score
-        double sim = LP.fernandoSim(a, b, W);
-        return sim;
+        return fernandoSim(a, b, w, W);
     }
 
     /**
@@ -430,7 +432,7 @@ public class LP {
         Analyzer analyzer = new StandardAnalyzer();
         TokenStream tokenStream = analyzer.tokenStream(null, new StringReader(text));
         if (stop) {
-            tokenStream = new StopFilter(tokenStream, StandardAnalyzer.ENGLISH_STOP_WORDS_SET);
+            tokenStream = new StopFilter(tokenStream, stopWords());
         }
 
         final CharTermAttribute charTermAttribute = tokenStream.addAttribute(CharTermAttribute.class);
@@ -450,83 +452,146 @@ public class LP {
 
         return words;
     }
+
+    /**
+     * @return Stop words removed from text fragments before comparing them.
+     */
+    public static CharArraySet stopWords() {
+        return StopWords.SET;
+    }
     // public methods
 
     // private methods
+    // Loads the dictionary once. Virtual threads that wait for it meanwhile do not pin their carriers.
     private static void fillDictionary() {
+        DICTIONARY_LOCK.lock();
         try {
-            InputStream ins = LP.class.getClassLoader().getResourceAsStream("dict60.txt");
-            Scanner scanner = new Scanner(ins);
-            while (scanner.hasNext()) {
-                String line = scanner.next();
-                dictionary.add(line.toLowerCase());
+            if (dictionaryLoaded) {
+                return;
+            }
+            ResourceSnapshot snapshot = ResourceSnapshot.get();
+            if (snapshot != null) {
+                dictionary.addAll(Arrays.asList(snapshot.getDictionary()));
+                dictionaryLoaded = true;
+                return;
+            }
+            try {
+                InputStream ins = LP.class.getClassLoader().getResourceAsStream("dict60.txt");
+                Scanner scanner = new Scanner(ins, "UTF-8");
+                while (scanner.hasNext()) {
+                    String line = scanner.next();
+                    dictionary.add(line.toLowerCase());
+                }
+                scanner.close();
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-            scanner.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+            dictionaryLoaded = true;
+        } finally {
+            DICTIONARY_LOCK.unlock();
         }
     }
 
-    private static boolean isVowel(char c) {
-        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    /*
+    Jiang-Conrath relatedness of two terms, taken from the cache if possible.
+    The measure is symmetric, so both orders of a pair share an entry.
+    */
+    private static double relatedness(JiangConrath jc, int id1, int id2) {
+        long key = id1 < id2 ? ((long) id1 << 32) | id2 : ((long) id2 << 32) | id1;
+        Double cached = relatednessCache.get(key);
+        if (cached == null) {
+            cached = WordNet.query(() -> jc.calcRelatednessOfWords(terms.symbol(id1), terms.symbol(id2)));
+            relatednessCache.put(key, cached);
+        }
+        return cached;
     }
 
-    private static boolean addE(String tmp) {
-        if (tmp.endsWith("g")) {
-            return true;
-        }
-        if (tmp.length() > 3) {
-            if ((tmp.charAt(tmp.length() - 1) == 't' || tmp.charAt(tmp.length() - 1) == 's'
-                    || tmp.charAt(tmp.length() - 1) == 'z' || tmp.charAt(tmp.length() - 1) == 'v')
-                    && isVowel(tmp.charAt(tmp.length() - 2))) {
-                return true;
-            } else if (tmp.charAt(tmp.length() - 1) == 'r'
-                    && (tmp.charAt(tmp.length() - 2) == 'u' && tmp.charAt(tmp.length() - 3) != 'o')
-                    || tmp.charAt(tmp.length() - 2) == 'i') {
-                return true;
-            } else if (tmp.charAt(tmp.length() - 1) == 's' && tmp.charAt(tmp.length() - 2) == 'a') {
-                return true;
-            } else if (tmp.charAt(tmp.length() - 1) == 'c' && tmp.charAt(tmp.length() - 2) == 'u') {
-                return true;
-            } else if (tmp.endsWith("rg")) {
-                return true;
-            } else if (tmp.endsWith("in") && !tmp.endsWith("oin")) {
-                return true;
+    // Merges two ascending lists of distinct IDs.
+    private static int[] union(int[] a, int[] b) {
+        int[] u = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                u[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                u[n++] = b[j++];
+            } else {
+                u[n++] = a[i++];
+                ++j;
             }
         }
-        return false;
+        return Arrays.copyOf(u, n);
     }
 
-    private static double fernandoSim(double[] a, double[] b, double[][] W) {
-        double norm = vecLength(a) * vecLength(b);
-        double[][] aM = new double[a.length][a.length];
-        aM[0] = a;
-        double[][] bM = new double[b.length][b.length];
-        for (int i = 0; i < bM.length; ++i) {
-            bM[i][0] = b[i];
+    /*
+    Similarity matrix of terms, packed upper-triangular: entry (i, j), i <= j, is at index(i, j, n).
+    Scores are normalized by the best score like JiangConrath.getNormalizedSimilarityMatrix, identical concepts
+    score 1, and scores below 0.8 are dropped.
+    */
+    private static float[] similarityMatrix(JiangConrath jc, int[] w) {
+        int n = w.length;
+        double[] raw = new double[n * (n + 1) / 2];
+        double best = 1;
+        for (int i = 0, k = 0; i < n; ++i) {
+            for (int j = i; j < n; ++j, ++k) {
+                raw[k] = relatedness(jc, w[i], w[j]);
+                if (raw[k] > best && raw[k] != Double.MAX_VALUE) {
+                    best = raw[k];
+                }
+            }
         }
-        double[][] mult = matrixMult(matrixMult(aM, W), bM);
-        return mult[0][0] / norm;
+        float[] W = new float[raw.length];
+        for (int k = 0; k < raw.length; ++k) {
+            double s = raw[k] == Double.MAX_VALUE ? 1 : raw[k] / best;
+            W[k] = s < 0.8 ? 0 : (float) s;
+        }
+        return W;
     }
 
-    private static double vecLength(double[] vec) {
+    // Position of entry (i, j) of a symmetric n x n matrix in packed upper-triangular storage.
+    private static int index(int i, int j, int n) {
+        if (i > j) {
+            int t = i;
+            i = j;
+            j = t;
+        }
+        return i * (2 * n - i + 1) / 2 + (j - i);
+    }
+
+    /*
+    a * W * b / (|a| * |b|) for binary vectors a and b over the terms w, given as the IDs of their non-zero
+    entries.
+    */
+    private static double fernandoSim(int[] a, int[] b, int[] w, float[] W) {
+        int n = w.length;
+        int[] rows = positions(a, w);
+        int[] cols = positions(b, w);
         double sum = 0;
-        for (int i = 0; i < vec.length; ++i) {
-            sum += vec[i] * vec[i];
+        for (int i : rows) {
+            for (int j : cols) {
+                sum += W[index(i, j, n)];
+            }
         }
-        return Math.sqrt(sum);
+        return sum / (Math.sqrt(a.length) * Math.sqrt(b.length));
     }
 
-    private static double[][] matrixMult(double[][] a, double[][] b) {
-        double[][] res = new double[a.length][b[0].length];
-        for (int i = 0; i < a.length; ++i) {
-            for (int j = 0; j < b[0].length; ++j) {
-                for (int k = 0; k < a[0].length; ++k) {
-                    res[i][j] += a[i][k] * b[k][j];
-                }
+    // Positions of the IDs of an ascending subset in an ascending list.
+    private static int[] positions(int[] subset, int[] w) {
+        int[] pos = new int[subset.length];
+        for (int i = 0, j = 0; i < subset.length; ++i) {
+            while (w[j] != subset[i]) {
+                ++j;
             }
+            pos[i] = j;
         }
-        return res;
+        return pos;
     }
     // private methods
-}
\ No newline at end of file
+
+    // Stop words, loaded when stopWords() is called for the first time.
+    private static class StopWords {
+        static final CharArraySet SET = ResourceSnapshot.get() == null ? StandardAnalyzer.ENGLISH_STOP_WORDS_SET
+                : CharArraySet.unmodifiableSet(
+                        new CharArraySet(Arrays.asList(ResourceSnapshot.get().getStopWords()), false));
+    }
+}
@@ -0,0 +1,117 @@
+package ps.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded least-recently-used cache for results of expensive, pure computations.
+ * <p>
+ * Access is guarded by a lock, so one instance can be shared between threads, including virtual threads, which do
+ * not pin their carrier while waiting for a ReentrantLock.
+ */
+public class LRUCache<K, V> {
+    private final LinkedHashMap<K, V> map;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param capacity Maximum number of entries kept in the cache.
+     */
+    public LRUCache(final int capacity) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param key Key to look up.
+     * @return Cached value or null, if key is not cached.
+     */
+    public V get(K key) {
+        this.lock.lock();
+        try {
+            V value = this.map.get(key);
+            if (value == null) {
+                ++this.misses;
+            } else {
+                ++this.hits;
+            }
+            return value;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Caches a value. Null values are not cached.
+     */
+    public void put(K key, V value) {
+        this.lock.lock();
+        try {
+            if (value != null) {
+                this.map.put(key, value);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries and resets statistics.
+     */
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.map.clear();
+            this.hits = 0;
+            this.misses = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of cached entries.
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.map.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of successful lookups.
+     */
+    public long getHits() {
+        this.lock.lock();
+        try {
+            return this.hits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of failed lookups.
+     */
+    public long getMisses() {
+        this.lock.lock();
+        try {
+            return this.misses;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
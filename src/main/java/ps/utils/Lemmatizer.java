@@ -0,0 +1,334 @@
+package ps.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps a word and its Penn Treebank POS-tag to its lemma and the POS of WS4J/WordNet (n, v, a, r).
+ * <p>
+ * Irregular forms are looked up in resources/dictionary/irregular.txt. Regular inflections are detached as WordNet
+ * does: suffix rules of the tag give candidate lemmas, and the first candidate found in the dictionary is taken.
+ * Words no rule explains are stemmed heuristically. Results are cached per tag and word, so repeated words cost
+ * two hash lookups and no allocation.
+ */
+public class Lemmatizer {
+    private static final String IRREGULAR = "irregular.txt";
+    // Maximum number of cached words per tag
+    private static final int CACHE_SIZE = 65536;
+
+    // Detachment rules of inflected tags
+    private static final Map<String, SuffixRules> RULES = new HashMap<>();
+    // Lemmas per tag and word
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Lemma>> cache = new ConcurrentHashMap<>();
+
+    static {
+        SuffixRules plural = new SuffixRules("s:", "ses:s", "xes:x", "zes:z", "ches:ch", "shes:sh", "men:man",
+                "ies:y");
+        SuffixRules past = new SuffixRules("ed:e", "ed:", "ied:y");
+        RULES.put("NNS", plural);
+        RULES.put("NNPS", plural);
+        RULES.put("VBZ", new SuffixRules("s:", "ies:y", "es:e", "es:"));
+        RULES.put("VBD", past);
+        RULES.put("VBN", past);
+        RULES.put("VBG", new SuffixRules("ing:e", "ing:", "ying:ie"));
+        RULES.put("JJR", new SuffixRules("er:e", "er:", "ier:y"));
+        RULES.put("JJS", new SuffixRules("est:e", "est:", "iest:y"));
+    }
+
+    private Lemmatizer() {
+    }
+
+    // public methods
+    /**
+     * @param word Word to be lemmatized.
+     * @param tag Penn Treebank POS-tag of the word.
+     * @return Lemma and WS4J POS of the word. Words that are neither nouns, verbs, adjectives nor adverbs keep
+     * their form and get no POS.
+     */
+    public static Lemma lemmatize(String word, String tag) {
+        ConcurrentHashMap<String, Lemma> lemmas = cache.get(tag);
+        if (lemmas == null) {
+            lemmas = cache.computeIfAbsent(tag, t -> new ConcurrentHashMap<>());
+        }
+        Lemma lemma = lemmas.get(word);
+        if (lemma == null) {
+            lemma = compute(word, tag);
+            if (lemmas.size() < CACHE_SIZE) {
+                lemmas.put(word, lemma);
+            }
+        }
+        return lemma;
+    }
+    // public methods
+
+    // private methods
+    private static Lemma compute(String word, String tag) {
+        String pos = posOf(tag);
+        if (pos == null || word.isEmpty()) {
+            return new Lemma(word, pos);
+        }
+        String lemma = word;
+        if (!tag.equals("NN") && !tag.equals("NNP") && !tag.equals("CD") && !tag.equals("VB")
+                && !tag.equals("JJ") && !tag.equals("RB") && !tag.equals("MD")) {
+            String lower = word.toLowerCase();
+            String irregular = Irregular.FORMS.get(pos + lower);
+            if (irregular != null) {
+                lemma = irregular;
+            } else if (RULES.containsKey(tag)) {
+                lemma = RULES.get(tag).detach(lower);
+                if (lemma == null) {
+                    lemma = guess(word, tag);
+                }
+            }
+        }
+        if (tag.equals("NNP") || tag.equals("NNPS")) {
+            lemma = lemma.substring(0, 1).toUpperCase() + lemma.substring(1);
+        }
+        return new Lemma(lemma, pos);
+    }
+
+    // WS4J POS of a Penn Treebank tag, null if WordNet does not cover it.
+    private static String posOf(String tag) {
+        if (tag.startsWith("NN") || tag.startsWith("CD")) {
+            return "n";
+        } else if (tag.startsWith("VB") || tag.startsWith("MD")) {
+            return "v";
+        } else if (tag.startsWith("JJ")) {
+            return "a";
+        } else if (tag.startsWith("RB")) {
+            return "r";
+        }
+        return null;
+    }
+
+    /*
+    Stem of a word no detachment rule explains, as guessed before the rules existed.
+    Plural s, past tense ed and participle ing are removed, with some spelling changes of the stem undone.
+    */
+    private static String guess(String word, String tag) {
+        if (tag.equals("NNS") || tag.equals("NNPS")) {
+            return word.endsWith("s") && word.length() > 1 ? word.substring(0, word.length() - 1) : word;
+        }
+        String tmp = word;
+        if (tag.equals("VBD") || tag.equals("VBN")) {
+            if (word.endsWith("ed")) {
+                tmp = word.substring(0, word.length() - 2);
+                if (tmp.endsWith("i")) {
+                    tmp = tmp.substring(0, tmp.length() - 1) + "y";
+                } else if (tmp.length() > 1 && tmp.charAt(tmp.length() - 1) == tmp.charAt(tmp.length() - 2)) {
+                    tmp = tmp.substring(0, tmp.length() - 1);
+                } else if (addE(tmp)) {
+                    tmp += "e";
+                }
+            }
+        } else if (tag.equals("VBG")) {
+            if (word.endsWith("ing")) {
+                tmp = word.substring(0, word.length() - 3);
+                if (tmp.length() > 2 && tmp.charAt(tmp.length() - 2) == tmp.charAt(tmp.length() - 3)) {
+                    tmp = tmp.substring(0, tmp.length() - 1);
+                }
+            }
+        }
+        return tmp;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+
+    private static boolean addE(String tmp) {
+        if (tmp.endsWith("g")) {
+            return true;
+        }
+        if (tmp.length() > 3) {
+            if ((tmp.charAt(tmp.length() - 1) == 't' || tmp.charAt(tmp.length() - 1) == 's'
+                    || tmp.charAt(tmp.length() - 1) == 'z' || tmp.charAt(tmp.length() - 1) == 'v')
+                    && isVowel(tmp.charAt(tmp.length() - 2))) {
+                return true;
+            } else if (tmp.charAt(tmp.length() - 1) == 'r'
+                    && (tmp.charAt(tmp.length() - 2) == 'u' && tmp.charAt(tmp.length() - 3) != 'o')
+                    || tmp.charAt(tmp.length() - 2) == 'i') {
+                return true;
+            } else if (tmp.charAt(tmp.length() - 1) == 's' && tmp.charAt(tmp.length() - 2) == 'a') {
+                return true;
+            } else if (tmp.charAt(tmp.length() - 1) == 'c' && tmp.charAt(tmp.length() - 2) == 'u') {
+                return true;
+            } else if (tmp.endsWith("rg")) {
+                return true;
+            } else if (tmp.endsWith("in") && !tmp.endsWith("oin")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    // private methods
+
+    /**
+     * Lemma of a word with its WS4J POS. Instances are shared; do not compare them by identity.
+     */
+    public static final class Lemma {
+        private final String lemma;
+        private final String pos;
+        private final String term;
+
+        private Lemma(String lemma, String pos) {
+            this.lemma = lemma;
+            this.pos = pos;
+            this.term = lemma + "#" + pos;
+        }
+
+        /**
+         * @return Lemma of the word.
+         */
+        public String getLemma() {
+            return this.lemma;
+        }
+
+        /**
+         * @return WS4J POS (n, v, a, r) or null, if WordNet does not cover the tag.
+         */
+        public String getPos() {
+            return this.pos;
+        }
+
+        /**
+         * @return Lemma and POS as used by WS4J, e.g. "run#v". The POS is "null" if there is none.
+         */
+        public String getTerm() {
+            return this.term;
+        }
+
+        public String toString() {
+            return this.term;
+        }
+    }
+
+    /*
+    Suffixes of a tag with their replacements, compiled into a trie of reversed suffixes.
+    Walking a word from its end finds every rule that applies in one pass.
+    */
+    private static class SuffixRules {
+        private final Node root = new Node();
+
+        // rules as "suffix:replacement"
+        SuffixRules(String... rules) {
+            for (String rule : rules) {
+                int colon = rule.indexOf(':');
+                Node node = this.root;
+                for (int i = colon - 1; i >= 0; --i) {
+                    node = node.child(rule.charAt(i), true);
+                }
+                node.add(rule.substring(colon + 1));
+            }
+        }
+
+        /*
+        First candidate lemma that is in the dictionary, longer suffixes first, or null.
+        Stems ending in two consonants take the replacement without a final e first (walked, not walke), others with
+        it (hoped, not hop). A doubled final consonant is undone as a last resort (planned, bigger).
+        */
+        String detach(String word) {
+            Node[] matches = new Node[word.length() + 1];
+            Node node = this.root;
+            int depth = 0;
+            while (node != null && depth < word.length()) {
+                node = node.child(word.charAt(word.length() - 1 - depth), false);
+                ++depth;
+                if (node != null && node.replacements != null) {
+                    matches[depth] = node;
+                }
+            }
+            for (int length = word.length() - 1; length > 0; --length) {
+                if (matches[length] == null) {
+                    continue;
+                }
+                String stem = word.substring(0, word.length() - length);
+                String[] replacements = matches[length].replacements;
+                boolean reverse = replacements.length == 2 && replacements[0].equals("e") && endsInConsonants(stem);
+                for (int i = 0; i < replacements.length; ++i) {
+                    String candidate = stem + replacements[reverse ? replacements.length - 1 - i : i];
+                    if (candidate.length() > 1 && LP.inDictionary(candidate)) {
+                        return candidate;
+                    }
+                }
+                int n = stem.length();
+                if (n > 2 && stem.charAt(n - 1) == stem.charAt(n - 2) && !isVowel(stem.charAt(n - 1))
+                        && LP.inDictionary(stem.substring(0, n - 1))) {
+                    return stem.substring(0, n - 1);
+                }
+            }
+            return null;
+        }
+
+        private static boolean endsInConsonants(String stem) {
+            int n = stem.length();
+            return n > 1 && !isVowel(stem.charAt(n - 1)) && !isVowel(stem.charAt(n - 2))
+                    && stem.charAt(n - 1) != 'y';
+        }
+
+        // Node of the trie; replacements of the suffix that ends here, if any.
+        private static class Node {
+            char[] keys = new char[0];
+            Node[] children = new Node[0];
+            String[] replacements;
+
+            Node child(char c, boolean create) {
+                for (int i = 0; i < this.keys.length; ++i) {
+                    if (this.keys[i] == c) {
+                        return this.children[i];
+                    }
+                }
+                if (!create) {
+                    return null;
+                }
+                Node node = new Node();
+                this.keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+                this.children = Arrays.copyOf(this.children, this.children.length + 1);
+                this.keys[this.keys.length - 1] = c;
+                this.children[this.children.length - 1] = node;
+                return node;
+            }
+
+            void add(String replacement) {
+                if (this.replacements == null) {
+                    this.replacements = new String[] { replacement };
+                } else {
+                    this.replacements = Arrays.copyOf(this.replacements, this.replacements.length + 1);
+                    this.replacements[this.replacements.length - 1] = replacement;
+                }
+            }
+        }
+    }
+
+    // Irregular forms, loaded when the first inflected word is lemmatized. Keys are POS and form, e.g. "vwent".
+    private static class Irregular {
+        static final Map<String, String> FORMS = load();
+
+        private static Map<String, String> load() {
+            HashMap<String, String> forms = new HashMap<>();
+            InputStream ins = Lemmatizer.class.getClassLoader().getResourceAsStream(IRREGULAR);
+            if (ins == null) {
+                return forms;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(ins, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.trim().split("\\s+");
+                    if (parts.length == 3 && !parts[0].startsWith("#")) {
+                        forms.putIfAbsent(parts[0] + parts[1], parts[2]);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            return forms;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ps.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.json.JSONObject;
+
+import ps.models.ChangeTag;
+
+/**
+ * Writes classified changes as newline-delimited JSON.
+ * <p>
+ * Example: {"tag":"RELATED_TERM","pos1":10,"pos2":12,"before":"team","after":"squad","degraded":false}
+ * <br>
+ * Each line is the object of {@link #toJSON(ChangeTag)}, so keys may come in any order.
+ */
+public class NDJSONWriter extends ChangeTagWriter {
+    private final Writer out;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param out Writer to write lines to.
+     */
+    public NDJSONWriter(Writer out) {
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+    }
+
+    /**
+     * @param ct classified change.
+     * @return classified change as a JSON object.
+     */
+    public static JSONObject toJSON(ChangeTag ct) {
+        JSONObject json = new JSONObject();
+        json.put("tag", ct.getTag().toString());
+        json.put("pos1", ct.getChange().getPos1());
+        json.put("pos2", ct.getChange().getPos2());
+        json.put("before", ct.getChange().getBefore());
+        json.put("after", ct.getChange().getAfter());
+        json.put("degraded", ct.isDegraded());
+        return json;
+    }
+
+    @Override
+    public void write(ChangeTag ct) throws IOException {
+        toJSON(ct).write(this.out);
+        this.out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+}
@@ -0,0 +1,97 @@
+package ps.utils;
+
+import java.util.Arrays;
+
+/**
+ * Text with every run of whitespace (spaces, tabs, line endings) collapsed into a single character, and the
+ * offsets of the normalized characters in the original text.
+ * <p>
+ * A run after the end of a sentence becomes a line break, any other run a space. The choice depends only on the
+ * preceding character, so runs in equal text stay equal, while the diff can still compare long texts line by
+ * line. Whitespace is what RegEx.FORMAT_CHAR matches, so differences that vanish in the normalized text are
+ * differences of formatting only.
+ */
+public class NormalizedText {
+    private final String original;
+    private final String text;
+    // offsets[i]: position of normalized character i in the original, offsets[length]: length of the original
+    private final int[] offsets;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param original Text to be normalized.
+     */
+    public NormalizedText(String original) {
+        this.original = original;
+        StringBuilder text = new StringBuilder(original.length());
+        int[] offsets = new int[original.length() + 1];
+        int n = 0;
+        for (int i = 0; i < original.length(); ++i) {
+            if (!isSpace(original.charAt(i)) || i == 0 || !isSpace(original.charAt(i - 1))) {
+                text.append(isSpace(original.charAt(i)) ? separator(original, i) : original.charAt(i));
+                offsets[n++] = i;
+            }
+        }
+        offsets[n] = original.length();
+        this.text = text.toString();
+        this.offsets = n == original.length() ? offsets : Arrays.copyOf(offsets, n + 1);
+    }
+
+    // public methods
+    /**
+     * @return Text before normalization.
+     */
+    public String getOriginal() {
+        return this.original;
+    }
+
+    /**
+     * @return Normalized text.
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * @param pos Position in the normalized text, up to its length.
+     * @return Position in the original text. A collapsed run of whitespace maps to its first character.
+     */
+    public int toOriginal(int pos) {
+        return this.offsets[pos];
+    }
+
+    /**
+     * @param pos Position in the normalized text.
+     * @return true, if the character at this position stands for a run of whitespace.
+     */
+    public boolean isRun(int pos) {
+        char c = this.text.charAt(pos);
+        return c == ' ' || c == '\n';
+    }
+
+    /**
+     * @param pos Position in the normalized text.
+     * @return Original text of the character at this position, the whole run for collapsed whitespace.
+     */
+    public String originalAt(int pos) {
+        return this.original.substring(this.offsets[pos], this.offsets[pos + 1]);
+    }
+
+    /**
+     * @param c character to be tested.
+     * @return true, if the character is whitespace as defined by \s in regular expressions.
+     */
+    public static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+    // public methods
+
+    // private methods
+    // Character replacing the run of whitespace that starts at the given position.
+    private static char separator(String original, int start) {
+        char previous = start > 0 ? original.charAt(start - 1) : ' ';
+        return previous == '.' || previous == '!' || previous == '?' ? '\n' : ' ';
+    }
+    // private methods
+}
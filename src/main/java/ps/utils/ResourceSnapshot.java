@@ -0,0 +1,167 @@
+package ps.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+
+/**
+ * Dictionary and stop words, serialized at build time into a single resource that is read at
+ * once instead of parsing the text sources on every start.
+ * <p>
+ * Format, all numbers big-endian, strings as modified UTF-8:
+ * <ol>
+ * <li>int: magic "NCS2"</li>
+ * <li>int: number of dictionary words, then the words in ascending order</li>
+ * <li>int: number of stop words, then the stop words</li>
+ * </ol>
+ * The snapshot is created by running this class with the target path, see the snapshot profile in pom.xml. The
+ * tagger lexicon is not part of it: FastTag parses it from its own resource and offers no public way to replace it.
+ */
+public class ResourceSnapshot {
+    /**
+     * Name of the snapshot resource on the classpath.
+     */
+    public static final String RESOURCE = "nutcracker.snapshot";
+    // Sources of the snapshot
+    private static final String DICTIONARY = "dict60.txt";
+    private static final int MAGIC = 0x4E435332;
+
+    private final String[] dictionary;
+    private final String[] stopWords;
+
+    private ResourceSnapshot(String[] dictionary, String[] stopWords) {
+        this.dictionary = dictionary;
+        this.stopWords = stopWords;
+    }
+
+    // public methods
+    /**
+     * @return Snapshot from the classpath, loaded on first use, null if there is none.
+     */
+    public static ResourceSnapshot get() {
+        return Holder.SNAPSHOT;
+    }
+
+    /**
+     * @return Words of the dictionary in ascending order.
+     */
+    public String[] getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return Stop words removed before comparing text fragments.
+     */
+    public String[] getStopWords() {
+        return this.stopWords;
+    }
+
+    /**
+     * Writes a snapshot of the dictionary and stop words found on the classpath.
+     * <br>
+     * @param args path of the snapshot to be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: ResourceSnapshot path");
+            return;
+        }
+        long start = System.nanoTime();
+        Path path = Paths.get(args[0]);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            write(out);
+        }
+        System.out.println("Resource snapshot written to " + path + " (" + Files.size(path) + " bytes, "
+                + (System.nanoTime() - start) / 1000000 + " ms)");
+    }
+    // public methods
+
+    // private methods
+    private static void write(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+
+        TreeSet<String> words = new TreeSet<>();
+        InputStream ins = ResourceSnapshot.class.getClassLoader().getResourceAsStream(DICTIONARY);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ins, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                words.add(line.toLowerCase());
+            }
+        }
+        writeStrings(out, new ArrayList<>(words));
+
+        List<String> stopWords = new ArrayList<>();
+        for (Object word : StandardAnalyzer.ENGLISH_STOP_WORDS_SET) {
+            stopWords.add(new String((char[]) word));
+        }
+        writeStrings(out, stopWords);
+        out.flush();
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; ++i) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    private static ResourceSnapshot load() {
+        InputStream ins = ResourceSnapshot.class.getClassLoader().getResourceAsStream(RESOURCE);
+        if (ins == null) {
+            return null;
+        }
+        try (InputStream is = ins) {
+            // read everything at once, then parse from memory
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 21);
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            String[] dictionary = readStrings(in);
+            String[] stopWords = readStrings(in);
+            return new ResourceSnapshot(dictionary, stopWords);
+        } catch (IOException e) {
+            System.err.println("Cannot read resource snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+    // private methods
+
+    // Loaded when get() is called for the first time.
+    private static class Holder {
+        static final ResourceSnapshot SNAPSHOT = load();
+    }
+}
@@ -0,0 +1,156 @@
+package ps.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+import ps.models.ChangeTag.Tag;
+
+/**
+ * Aggregates classified changes into counters instead of writing each of them.
+ * <p>
+ * Counts changes and the characters they remove and add as detected (not the words or sentences their tags refer
+ * to) per tag, for the whole document and for each paragraph (line of the original version) that has changes.
+ * Nothing of a change is kept once it is counted, so memory depends on the number of changed paragraphs, not on
+ * the number or size of changes. The summary is written as one JSON object when the writer is closed.
+ * <p>
+ * Example: {"changes":3,"degraded":0,"removed":12,"added":15,"tags":{"SPELLING":{"count":2,"removed":9,
+ * "added":9},...},"paragraphs":[{"paragraph":4,"start":812,"changes":3,"removed":12,"added":15,
+ * "tags":{"SPELLING":2,...}}]}
+ */
+public class SummaryWriter extends ChangeTagWriter {
+    private static final Tag[] TAGS = Tag.values();
+    // counters per paragraph: changes per tag, then characters removed and added
+    private static final int REMOVED = TAGS.length;
+    private static final int ADDED = TAGS.length + 1;
+
+    private final Writer out;
+    // offsets at which the paragraphs of the original version start
+    private final int[] paragraphStarts;
+    private final long[] counts = new long[TAGS.length];
+    private final long[] removed = new long[TAGS.length];
+    private final long[] added = new long[TAGS.length];
+    private final TreeMap<Integer, long[]> paragraphs = new TreeMap<>();
+    private long degraded = 0;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param out Writer to write the summary to when closed, null to only collect it.
+     * @param text1 Original version of the document, whose lines are the paragraphs.
+     */
+    public SummaryWriter(Writer out, String text1) {
+        this.out = out == null || out instanceof BufferedWriter ? out : new BufferedWriter(out);
+        int[] starts = new int[16];
+        int n = 0;
+        starts[n++] = 0;
+        for (int i = 0; i < text1.length(); ++i) {
+            if (text1.charAt(i) == '\n' && i + 1 < text1.length()) {
+                if (n == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * n);
+                }
+                starts[n++] = i + 1;
+            }
+        }
+        this.paragraphStarts = Arrays.copyOf(starts, n);
+    }
+
+    /**
+     * Constructor of a writer that only collects the summary.
+     * <p>
+     * @param text1 Original version of the document, whose lines are the paragraphs.
+     */
+    public SummaryWriter(String text1) {
+        this(null, text1);
+    }
+
+    /**
+     * Counts a change by the extension its tag refers to, for callers that do not have the change as detected.
+     */
+    @Override
+    public void write(ChangeTag ct) throws IOException {
+        write(ct.getChange(), ct);
+    }
+
+    /**
+     * Counts a change by the characters it removes and adds, not by the word or sentence its tag refers to, so
+     * that several edits within a sentence count its text only as far as they change it.
+     */
+    @Override
+    public synchronized void write(Change c, ChangeTag ct) throws IOException {
+        int tag = ct.getTag().ordinal();
+        int before = c.getBefore().length();
+        int after = c.getAfter().length();
+        ++this.counts[tag];
+        this.removed[tag] += before;
+        this.added[tag] += after;
+        if (ct.isDegraded()) {
+            ++this.degraded;
+        }
+        long[] paragraph = this.paragraphs.computeIfAbsent(paragraphOf(c.getPos1()), k -> new long[ADDED + 1]);
+        ++paragraph[tag];
+        paragraph[REMOVED] += before;
+        paragraph[ADDED] += after;
+    }
+
+    /**
+     * @return Summary of the changes counted so far.
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject summary = new JSONObject();
+        summary.put("changes", Arrays.stream(this.counts).sum());
+        summary.put("degraded", this.degraded);
+        summary.put("removed", Arrays.stream(this.removed).sum());
+        summary.put("added", Arrays.stream(this.added).sum());
+        JSONObject tags = new JSONObject();
+        for (int t = 0; t < TAGS.length; ++t) {
+            if (this.counts[t] > 0) {
+                tags.put(TAGS[t].toString(), new JSONObject().put("count", this.counts[t])
+                        .put("removed", this.removed[t]).put("added", this.added[t]));
+            }
+        }
+        summary.put("tags", tags);
+        JSONArray list = new JSONArray();
+        for (Map.Entry<Integer, long[]> e : this.paragraphs.entrySet()) {
+            long[] counters = e.getValue();
+            JSONObject paragraphTags = new JSONObject();
+            long changes = 0;
+            for (int t = 0; t < TAGS.length; ++t) {
+                if (counters[t] > 0) {
+                    paragraphTags.put(TAGS[t].toString(), counters[t]);
+                    changes += counters[t];
+                }
+            }
+            list.put(new JSONObject().put("paragraph", e.getKey()).put("start", this.paragraphStarts[e.getKey()])
+                    .put("changes", changes).put("removed", counters[REMOVED]).put("added", counters[ADDED])
+                    .put("tags", paragraphTags));
+        }
+        summary.put("paragraphs", list);
+        return summary;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.out != null) {
+            this.out.write(toJSON().toString());
+            this.out.write('\n');
+            this.out.close();
+        }
+    }
+
+    // private methods
+    // Index of the paragraph that contains the position.
+    private int paragraphOf(int pos) {
+        int i = Arrays.binarySearch(this.paragraphStarts, pos);
+        return i >= 0 ? i : Math.max(0, -i - 2);
+    }
+    // private methods
+}
@@ -0,0 +1,94 @@
+package ps.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Interns strings to consecutive integer IDs, starting at 0.
+ * <p>
+ * IDs never change once assigned, so they can be used as keys and vector indices in place of the strings.
+ * Lookups of known strings do not lock; can be shared between threads.
+ */
+public class SymbolTable {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] symbols = new String[256];
+    // guards new strings, not held by lookups
+    private final ReentrantLock lock = new ReentrantLock();
+    private int size = 0;
+
+    // public methods
+    /**
+     * @param symbol String to be interned.
+     * @return ID of the string, assigned if the string is new.
+     */
+    public int id(String symbol) {
+        Integer id = this.ids.get(symbol);
+        return id != null ? id : add(symbol);
+    }
+
+    /**
+     * @param symbols Strings to be interned.
+     * @return IDs of the distinct strings in ascending order.
+     */
+    public int[] distinctIds(Iterable<String> symbols) {
+        int[] ids = new int[16];
+        int n = 0;
+        for (String symbol : symbols) {
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * n);
+            }
+            ids[n++] = id(symbol);
+        }
+        Arrays.sort(ids, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; ++i) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    /**
+     * @param id ID of an interned string.
+     * @return The interned string.
+     */
+    public String symbol(int id) {
+        return this.symbols[id];
+    }
+
+    /**
+     * @return Number of interned strings.
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    // public methods
+
+    // private methods
+    // The string is stored before its ID is published, so that symbol(id) always finds it.
+    private int add(String symbol) {
+        this.lock.lock();
+        try {
+            Integer id = this.ids.get(symbol);
+            if (id != null) {
+                return id;
+            }
+            if (this.size == this.symbols.length) {
+                this.symbols = Arrays.copyOf(this.symbols, 2 * this.size);
+            }
+            this.symbols[this.size] = symbol;
+            this.ids.put(symbol, this.size);
+            return this.size++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    // private methods
+}
@@ -0,0 +1,231 @@
+package ps.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.knowledgebooks.nlp.fasttag.FastTag;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+/**
+ * Term vectors of the paragraphs of one version of a document.
+ * <p>
+ * Computes the similarity score of {@link LP#semanticSimilarity(String, String)} between a paragraph and the
+ * same paragraph with a fragment replaced. Each paragraph is tokenized, tagged and stemmed once and the
+ * Jiang-Conrath relatedness of its terms is kept. For a replacement only the terms removed from and added to the
+ * paragraph are scored:
+ * <br>
+ * a * W * b = a * W * a - a * W * removed + a * W * added
+ * <p>
+ * Can be shared between threads classifying changes of the same document.
+ */
+public class TermVectorIndex {
+    private final String text;
+    // paragraphs by start and end offset
+    private final ConcurrentHashMap<Long, Paragraph> paragraphs = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * <p>
+     * @param text Version of the document, whose paragraphs are compared against replacements.
+     */
+    public TermVectorIndex(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return Version of the document.
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * @param start beginning of the replaced fragment.
+     * @param end end of the replaced fragment.
+     * @param replacement text that replaces the fragment.
+     * @return Similarity score between the paragraph around the fragment before and after the replacement, -1 if
+     * either has no words or both have the same words.
+     */
+    public double similarity(int start, int end, String replacement) {
+        int[] para = LP.nearestParagraph(this.text, start, end);
+        Paragraph p = this.paragraphs.computeIfAbsent(((long) para[0] << 32) | para[1],
+                k -> new Paragraph(this.text.substring(para[0], para[1]), para[0]));
+
+        // words are never split across whitespace, widen the fragment to it to tokenize the replacement in place
+        int from = start;
+        while (from > para[0] && !Character.isWhitespace(this.text.charAt(from - 1))) {
+            --from;
+        }
+        int to = end;
+        while (to < para[1] && !Character.isWhitespace(this.text.charAt(to))) {
+            ++to;
+        }
+
+        // split terms of the paragraph into the replaced fragment and the rest
+        HashMap<String, Integer> remaining = new HashMap<>(p.counts);
+        List<String> removedWords = new ArrayList<>();
+        for (int i = 0; i < p.words.size(); ++i) {
+            if (p.offsets[i] >= from && p.offsets[i] < to) {
+                removedWords.add(p.words.get(i));
+                remaining.merge(p.terms[i], -1, Integer::sum);
+            }
+        }
+        Terms added = new Terms(this.text.substring(from, start) + replacement + this.text.substring(end, to), 0);
+        if (p.words.isEmpty() || p.words.size() - removedWords.size() + added.words.size() == 0
+                || removedWords.equals(added.words)) {
+            return -1;
+        }
+
+        // terms left without occurrences, unless the replacement contains them again, and new terms
+        HashSet<String> replacing = new HashSet<>(Arrays.asList(added.terms));
+        ArrayList<String> removedTerms = new ArrayList<>();
+        for (String term : p.index.keySet()) {
+            if (remaining.get(term) == 0 && !replacing.contains(term)) {
+                removedTerms.add(term);
+            }
+        }
+        LinkedHashSet<String> addedTerms = new LinkedHashSet<>();
+        for (String term : added.terms) {
+            if (!p.index.containsKey(term)) {
+                addedTerms.add(term);
+            }
+        }
+
+        // relatedness of added terms to all terms of both vectors
+        String[] union = p.index.keySet().toArray(new String[0]);
+        String[] news = addedTerms.toArray(new String[0]);
+        String[] all = Arrays.copyOf(union, union.length + news.length);
+        System.arraycopy(news, 0, all, union.length, news.length);
+        double[][] toNew = LP.relatednessMatrix(union, news);
+        double[][] fromNew = LP.relatednessMatrix(news, all);
+        double best = max(p.best, toNew);
+        best = max(best, fromNew);
+
+        double score = best == p.best ? p.selfScore : p.score(best);
+        for (String term : removedTerms) {
+            int column = p.index.get(term);
+            for (int i = 0; i < union.length; ++i) {
+                score -= weight(p.raw[i][column], best);
+            }
+        }
+        for (int j = 0; j < news.length; ++j) {
+            for (int i = 0; i < union.length; ++i) {
+                score += weight(toNew[i][j], best);
+            }
+        }
+
+        int size1 = union.length;
+        int size2 = union.length - removedTerms.size() + news.length;
+        return score / (Math.sqrt(size1) * Math.sqrt(size2));
+    }
+
+    // Normalized and thresholded entry of the similarity matrix, as in LP.semanticSimilarity.
+    private static double weight(double raw, double best) {
+        double w = raw == Double.MAX_VALUE ? 1 : raw / best;
+        return w < 0.8 ? 0 : w;
+    }
+
+    // Largest score used to normalize the similarity matrix, at least 1.
+    private static double max(double best, double[][] raw) {
+        for (double[] row : raw) {
+            for (double r : row) {
+                if (r > best && r != Double.MAX_VALUE) {
+                    best = r;
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+    Words of a text fragment without stop words and numbers, their offsets and stemmed terms with POS-tags.
+    */
+    private static class Terms {
+        final List<String> words = new ArrayList<>();
+        int[] offsets;
+        String[] terms;
+
+        Terms(String fragment, int offset) {
+            ArrayList<Integer> starts = new ArrayList<>();
+            Analyzer analyzer = new StandardAnalyzer();
+            TokenStream tokenStream = new StopFilter(analyzer.tokenStream(null, new StringReader(fragment)),
+                    LP.stopWords());
+            CharTermAttribute charTermAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAttribute = tokenStream.addAttribute(OffsetAttribute.class);
+            try {
+                tokenStream.reset();
+                while (tokenStream.incrementToken()) {
+                    String word = charTermAttribute.toString();
+                    if (!LP.isNumber(word)) {
+                        this.words.add(word);
+                        starts.add(offset + offsetAttribute.startOffset());
+                    }
+                }
+                tokenStream.end();
+                tokenStream.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            } finally {
+                analyzer.close();
+            }
+
+            this.offsets = starts.stream().mapToInt(Integer::intValue).toArray();
+            this.terms = new String[this.words.size()];
+            List<String> tags = FastTag.tag(this.words);
+            for (int i = 0; i < this.terms.length; ++i) {
+                this.terms[i] = Lemmatizer.lemmatize(this.words.get(i), tags.get(i)).getTerm();
+            }
+        }
+    }
+
+    /*
+    Term vector of a paragraph with relatedness of all pairs of its terms.
+    */
+    private static class Paragraph extends Terms {
+        // number of occurrences of each term
+        final HashMap<String, Integer> counts = new HashMap<>();
+        // row and column of each term in the relatedness matrix
+        final LinkedHashMap<String, Integer> index = new LinkedHashMap<>();
+        final double[][] raw;
+        final double best;
+        final double selfScore;
+
+        Paragraph(String paragraph, int offset) {
+            super(paragraph, offset);
+            for (String term : this.terms) {
+                this.counts.merge(term, 1, Integer::sum);
+                this.index.putIfAbsent(term, this.index.size());
+            }
+            String[] unique = this.index.keySet().toArray(new String[0]);
+            this.raw = LP.relatednessMatrix(unique, unique);
+            double b = max(1, this.raw);
+            this.best = b;
+            this.selfScore = score(b);
+        }
+
+        // Sum of the normalized similarity matrix of the paragraph.
+        double score(double best) {
+            double sum = 0;
+            for (double[] row : this.raw) {
+                for (double r : row) {
+                    sum += weight(r, best);
+                }
+            }
+            return sum;
+        }
+    }
+}
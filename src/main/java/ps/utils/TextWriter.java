@@ -0,0 +1,34 @@
+package ps.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import ps.models.ChangeTag;
+
+/**
+ * Writes classified changes as human-readable lines, see {@link ChangeTag#toString()}.
+ */
+public class TextWriter extends ChangeTagWriter {
+    private final Writer out;
+
+    /**
+     * Constructor.
+     * <p>
+     * @param out Writer to write lines to.
+     */
+    public TextWriter(Writer out) {
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+    }
+
+    @Override
+    public void write(ChangeTag ct) throws IOException {
+        this.out.write(ct.toString());
+        this.out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+}
@@ -0,0 +1,61 @@
+package ps.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Access to virtual threads on JDKs that provide them, without requiring such a JDK to build or run.
+ */
+public class VirtualThreads {
+    // Executors.newVirtualThreadPerTaskExecutor(), null if not provided by the running JDK
+    private static final Method NEW_EXECUTOR = findFactory();
+    // true, if an executor could be created once; it is closed again right away
+    private static final boolean AVAILABLE = probe();
+
+    private VirtualThreads() {
+    }
+
+    // public methods
+    /**
+     * @return true, if the running JDK can start virtual threads.
+     */
+    public static boolean isAvailable() {
+        return NEW_EXECUTOR != null && AVAILABLE;
+    }
+
+    /**
+     * @return Executor starting a new virtual thread for each task, null if the running JDK cannot start
+     * virtual threads.
+     */
+    public static ExecutorService newExecutor() {
+        if (NEW_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // preview feature that is not enabled
+            return null;
+        }
+    }
+    // public methods
+
+    // private methods
+    private static Method findFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean probe() {
+        ExecutorService executor = newExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+    // private methods
+}
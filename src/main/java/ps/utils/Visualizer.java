@@ -2,27 +2,34 @@ package ps.utils;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.UUID;
 
-import com.google.common.io.Files;
-
-import name.fraser.neil.plaintext.diff_match_patch;
 import name.fraser.neil.plaintext.diff_match_patch.Diff;
-import name.fraser.neil.plaintext.diff_match_patch.Operation;
+import ps.changeclassifier.ChangeDetector;
+import ps.models.Change;
 import ps.models.ChangeTag;
+import ps.models.PositionedDiff;
 
 /**
  * Visualization module
+ * <p>
+ * HTML is streamed directly to files. Documents longer than the page size are split into linked pages, each
+ * listing the tags of the changes it shows.
  */
 public class Visualizer {
+    /**
+     * Number of characters of the document shown on one page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 200000;
+
     private Visualizer() {
     }
 
-    private final static diff_match_patch dmp = new diff_match_patch();
-
     /**
      * @param classification Obtained change classification.
      * @param original Original version of the document.
@@ -30,76 +37,201 @@ public class Visualizer {
      * Visualizes the change classification. Can be improved.
      */
     public static void visualize(ArrayList<ChangeTag> classification, String original, String mod) {
-        String html = toHTML(classification, original, mod);
+        ArrayList<PositionedDiff> diffs = ChangeDetector.getDocumentDiffs(original, mod);
+        visualize(classification, ChangeDetector.getChanges(diffs, original, mod), diffs);
+    }
 
+    /**
+     * @param classification Obtained change classification.
+     * @param changes Changes, that were classified, in the same order.
+     * @param diffs Edit script, from which the changes were obtained.
+     * Visualizes the change classification without computing the edit script again.
+     */
+    public static void visualize(ArrayList<ChangeTag> classification, List<Change> changes,
+            List<PositionedDiff> diffs) {
         try {
-            String path = saveToFile(html);
+            String path = saveToFiles(classification, changes, diffs, DEFAULT_PAGE_SIZE);
             System.out.println("\nVisualization is found at: " + path);
         } catch (IOException e) {
             System.out.println("Cannot visualize classification.");
         }
     }
 
-    private static String saveToFile(String html) throws IOException {
-        String htmlString = "<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\""
-                + "\"http://www.w3.org/TR/html4/loose.dtd\">" + "<html>" + "<head>"
-                + "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">" + "<title>$title</title>"
-                + "</head>" + "<body>$body" + "</body>" + "</html>";
-        String uniqueID = UUID.randomUUID().toString();
-        String title = "change_class_" + uniqueID;
-        String body = html;
-        htmlString = htmlString.replace("$title", title);
-        htmlString = htmlString.replace("$body", body);
-        File newHtmlFile = new File("./" + title + ".html");
-        Files.write(htmlString, newHtmlFile, Charset.defaultCharset());
-        return newHtmlFile.getAbsolutePath();
+    /**
+     * Writes the edit script with a footnote per change, placed after the last diff the change consists of and
+     * linked to the tag of the change.
+     * <br>
+     * @param classification Obtained change classification.
+     * @param changes Changes, that were classified, in the same order.
+     * @param diffs Edit script, from which the changes were obtained.
+     * @param pageSize Number of characters of the document shown on one page.
+     * @return Path to the first page of the visualization.
+     */
+    public static String saveToFiles(List<ChangeTag> classification, List<Change> changes,
+            List<PositionedDiff> diffs, int pageSize) throws IOException {
+        String title = "change_class_" + UUID.randomUUID().toString();
+        PageWriter pages = new PageWriter(title, classification, pageSize);
+        try {
+            // end of the diffs written so far in both versions
+            int end1 = 0, end2 = 0;
+            int next = 0;
+            for (PositionedDiff pd : diffs) {
+                Diff d = pd.getDiff();
+                switch (d.operation) {
+                case INSERT:
+                    pages.write("<ins style=\"background:#e6ffe6;\">", d.text, "</ins>", false);
+                    end2 += d.text.length();
+                    break;
+                case DELETE:
+                    pages.write("<del style=\"background:#ffe6e6;\">", d.text, "</del>", false);
+                    end1 += d.text.length();
+                    break;
+                case EQUAL:
+                    pages.write("<span>", d.text, "</span>", true);
+                    end1 += d.text.length();
+                    end2 += d.text.length();
+                    break;
+                }
+                // changes, that are written completely
+                while (next < changes.size() && isWritten(changes.get(next), end1, end2)) {
+                    pages.footnote();
+                    ++next;
+                }
+            }
+            while (next < changes.size()) {
+                pages.footnote();
+                ++next;
+            }
+        } finally {
+            pages.close();
+        }
+        return pages.getFirstPage().getAbsolutePath();
     }
 
-    private static String toHTML(ArrayList<ChangeTag> classification, String original, String mod) {
-        LinkedList<Diff> diffs = dmp.diff_main(original, mod);
-        dmp.diff_cleanupSemantic(diffs);
-        StringBuilder html = new StringBuilder();
-        StringBuilder types = new StringBuilder();
-        types.append("<ol>");
-        int index = 0;
-
-        for (int i = 0; i < diffs.size(); ++i) {
-            Diff d = diffs.get(i);
-            String text = d.text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\n",
-                    "&para;<br>");
-            switch (d.operation) {
-            case INSERT:
-                html.append("<ins style=\"background:#e6ffe6;\">").append(text).append("</ins>");
-                html.append("<sup><a href=\"#" + (index + 1) + "\">" + (index + 1) + "</a></sup>");
-                try {
-                    types.append("<li id=\"" + (index + 1) + "\">" + classification.get(index).getTag().toString()
-                            + "</li>");
-                } catch (Exception e) {
-                    types.append("<li id=\"" + (index + 1) + "\">" + e.getMessage() + "</li>");
-                }
+    // private methods
+    private static boolean isWritten(Change change, int end1, int end2) {
+        return change.getPos1() + change.getBefore().length() <= end1
+                && change.getPos2() + change.getAfter().length() <= end2;
+    }
+    // private methods
 
-                ++index;
-                break;
-            case DELETE:
-                html.append("<del style=\"background:#ffe6e6;\">").append(text).append("</del>");
-                if (i != diffs.size() - 1 && !diffs.get(i + 1).operation.equals(Operation.INSERT)) {
-                    html.append("<sup><a href=\"#" + (index + 1) + "\">" + (index + 1) + "</a></sup>");
-                    try {
-                        types.append("<li id=\"" + (index + 1) + "\">" + classification.get(index).getTag().toString()
-                                + "</li>");
-                    } catch (Exception e) {
-                        types.append("<li id=\"" + (index + 1) + "\">" + e.getMessage() + "</li>");
+    /*
+    Writes pages one after another, starting a new one once the current page is full.
+    */
+    private static class PageWriter {
+        private final String title;
+        private final List<ChangeTag> classification;
+        private final int pageSize;
+
+        private File firstPage;
+        private Writer out;
+        private int page = 0;
+        private int written = 0;
+        // footnotes of the current page
+        private int firstFootnote = 0;
+        private int footnote = 0;
+
+        PageWriter(String title, List<ChangeTag> classification, int pageSize) throws IOException {
+            this.title = title;
+            this.classification = classification;
+            this.pageSize = pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+            openPage();
+        }
+
+        File getFirstPage() {
+            return this.firstPage;
+        }
+
+        // Writes escaped text, splitting it between pages if allowed.
+        void write(String open, String text, String close, boolean splittable) throws IOException {
+            int from = 0;
+            while (from < text.length()) {
+                if (this.written >= this.pageSize) {
+                    nextPage();
+                }
+                int to = splittable ? Math.min(text.length(), from + this.pageSize - this.written) : text.length();
+                this.out.write(open);
+                for (int i = from; i < to; ++i) {
+                    char c = text.charAt(i);
+                    switch (c) {
+                    case '&':
+                        this.out.write("&amp;");
+                        break;
+                    case '<':
+                        this.out.write("&lt;");
+                        break;
+                    case '>':
+                        this.out.write("&gt;");
+                        break;
+                    case '\n':
+                        this.out.write("&para;<br>");
+                        break;
+                    default:
+                        this.out.write(c);
                     }
-                    ++index;
                 }
-                break;
-            case EQUAL:
-                html.append("<span>").append(text).append("</span>");
-                break;
+                this.out.write(close);
+                this.written += to - from;
+                from = to;
             }
         }
-        types.append("</ol>");
-        return html.toString() + "&para;<br>" + types.toString();
-    }
 
-}
\ No newline at end of file
+        // Links the last written diff to the tag of its change.
+        void footnote() throws IOException {
+            ++this.footnote;
+            this.out.write("<sup><a href=\"#" + this.footnote + "\">" + this.footnote + "</a></sup>");
+        }
+
+        void close() throws IOException {
+            closePage(false);
+        }
+
+        private void nextPage() throws IOException {
+            closePage(true);
+            openPage();
+        }
+
+        private void openPage() throws IOException {
+            ++this.page;
+            File file = new File("./" + this.title + (this.page == 1 ? "" : "_" + this.page) + ".html");
+            if (this.page == 1) {
+                this.firstPage = file;
+            }
+            this.out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+            this.out.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\""
+                    + "\"http://www.w3.org/TR/html4/loose.dtd\">" + "<html>" + "<head>"
+                    + "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">" + "<title>"
+                    + this.title + "</title>" + "</head>" + "<body>");
+            if (this.page > 1) {
+                this.out.write("<p>" + pageLink(this.page - 1, "&laquo; previous") + "</p>");
+            }
+            this.written = 0;
+            this.firstFootnote = this.footnote;
+        }
+
+        private void closePage(boolean hasNext) throws IOException {
+            this.out.write("&para;<br>");
+            this.out.write("<ol start=\"" + (this.firstFootnote + 1) + "\">");
+            for (int index = this.firstFootnote; index < this.footnote; ++index) {
+                String tag;
+                try {
+                    tag = this.classification.get(index).getTag().toString();
+                } catch (Exception e) {
+                    tag = e.getMessage();
+                }
+                this.out.write("<li id=\"" + (index + 1) + "\">" + tag + "</li>");
+            }
+            this.out.write("</ol>");
+            if (hasNext) {
+                this.out.write("<p>" + pageLink(this.page + 1, "next &raquo;") + "</p>");
+            }
+            this.out.write("</body>" + "</html>");
+            this.out.close();
+        }
+
+        private String pageLink(int target, String label) {
+            String name = this.title + (target == 1 ? "" : "_" + target) + ".html";
+            return "<a href=\"" + name + "\">" + label + "</a>";
+        }
+    }
+}
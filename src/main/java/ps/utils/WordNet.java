@@ -0,0 +1,50 @@
+package ps.utils;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import edu.cmu.lti.lexical_db.ILexicalDatabase;
+import edu.cmu.lti.lexical_db.NictWordNet;
+
+/**
+ * WordNet database shared by all analyses, opened on first use.
+ * <p>
+ * WS4J and JAWJAW read WordNet over one database connection and keep their caches in unsynchronized maps, so
+ * they are not safe to use from several threads. Changes classified concurrently run their lookups through
+ * {@link #query(Supplier)}, one at a time. The lock is a ReentrantLock rather than a monitor, so that a virtual
+ * thread waiting for it, or holding it during a lookup, does not pin its carrier thread on JDKs before 24. FastTag
+ * needs no such guard: it fills its lexicon once in its static initializer and only reads it afterwards.
+ */
+public class WordNet {
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    private WordNet() {
+    }
+
+    /**
+     * @return WordNet database.
+     */
+    public static ILexicalDatabase get() {
+        return Holder.DB;
+    }
+
+    /**
+     * Runs lookups in WS4J or JAWJAW while no other thread does.
+     * <p>
+     * @param lookup Lookup to be run.
+     * @return Result of the lookup.
+     */
+    public static <T> T query(Supplier<T> lookup) {
+        LOCK.lock();
+        try {
+            return lookup.get();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    // Initialized when get() is called for the first time.
+    private static class Holder {
+        static final ILexicalDatabase DB = new NictWordNet();
+    }
+}
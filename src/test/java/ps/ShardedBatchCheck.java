@@ -0,0 +1,122 @@
+package ps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+
+import ps.models.DocumentPair;
+
+/**
+ * Runs the benchmark pairs as a sharded batch in several local processes and compares the merged output with a
+ * batch run in this process.
+ * <p>
+ * Worker 1 is killed as soon as it holds the lock of an unfinished job, to check that its job is taken over once the lock goes stale. The
+ * exit code is 1 if a result is missing, out of order or differs from the single-process run.
+ * <p>
+ * Usage: ShardedBatchCheck [workers] [true to kill worker 1 (default), false to keep it]
+ */
+public class ShardedBatchCheck {
+    private static final long STALE_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        boolean kill = args.length > 1 ? Boolean.parseBoolean(args[1]) : true;
+        Path source = Paths.get(ShardedBatchCheck.class.getClassLoader().getResource("dna_1.txt").toURI())
+                .getParent();
+        Path dir = Files.createTempDirectory("nutcracker-shards");
+        Path queue = dir.resolve("queue");
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for (int k = 1; k <= workers; ++k) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-D" + ShardedBatchRunner.STALE_MILLIS + "="
+                    + STALE_MILLIS, "-cp", System.getProperty("java.class.path"), NutCracker.class.getName(), "-q",
+                    source.toString(), queue.toString(), k + "/" + workers, "1");
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(dir.resolve("worker" + k + ".log").toFile());
+            processes.add(builder.start());
+        }
+        if (kill) {
+            if (awaitClaim(queue, "1-", processes.get(0))) {
+                processes.get(0).destroyForcibly();
+                System.out.println("Killed worker 1 holding a lock");
+            } else {
+                System.out.println("Worker 1 ended without being seen holding a lock");
+                processes.forEach(Process::destroyForcibly);
+                System.exit(1);
+            }
+        }
+        for (Process p : processes) {
+            p.waitFor();
+        }
+
+        Path merged = dir.resolve("merged.ndjson");
+        int missing = ShardedBatchRunner.merge(queue, merged);
+        Path single = dir.resolve("single.ndjson");
+        List<DocumentPair> pairs = BatchRunner.getPairs(source);
+        BatchRunner.run(pairs, single, 1);
+
+        Map<String, String> expected = new HashMap<>();
+        for (String line : Files.readAllLines(single, StandardCharsets.UTF_8)) {
+            JSONObject result = new JSONObject(line);
+            expected.put(result.getString("id"), result.get("changes").toString());
+        }
+        List<String> lines = Files.readAllLines(merged, StandardCharsets.UTF_8);
+        int errors = missing;
+        for (int i = 0; i < lines.size(); ++i) {
+            JSONObject result = new JSONObject(lines.get(i));
+            String id = result.getString("id");
+            if (result.getInt("job") != i || !id.equals(pairs.get(i).getId())) {
+                System.out.println("Job " + result.getInt("job") + " (" + id + ") is out of order at line " + i);
+                ++errors;
+            } else if (!result.has("changes") || !result.get("changes").toString().equals(expected.get(id))) {
+                System.out.println("Pair " + id + " of worker " + result.getString("worker") + " differs");
+                ++errors;
+            } else {
+                System.out.println("Pair " + id + " matches, classified by worker " + result.getString("worker"));
+            }
+        }
+        System.out.println(errors == 0 ? "Sharded batch is equivalent, see " + dir : errors + " errors, see " + dir);
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    /*
+    Waits until a worker holds the lock of a job that has no result yet, identified by the token prefix of the
+    worker. False if the worker ends before.
+    */
+    private static boolean awaitClaim(Path queue, String prefix, Process worker) throws Exception {
+        Path locks = queue.resolve("locks");
+        while (worker.isAlive()) {
+            if (Files.isDirectory(locks)) {
+                try (Stream<Path> list = Files.list(locks)) {
+                    for (Path lock : (Iterable<Path>) list::iterator) {
+                        String name = lock.getFileName().toString();
+                        if (!name.endsWith(".lock") || Files.exists(queue.resolve("results")
+                                .resolve(name.substring(0, name.length() - ".lock".length()) + ".json"))) {
+                            continue;
+                        }
+                        try {
+                            if (new String(Files.readAllBytes(lock), StandardCharsets.UTF_8).startsWith(prefix)) {
+                                return true;
+                            }
+                        } catch (IOException e) {
+                            // released meanwhile
+                        }
+                    }
+                }
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
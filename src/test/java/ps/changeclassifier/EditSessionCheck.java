@@ -0,0 +1,138 @@
+package ps.changeclassifier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+
+/**
+ * Checks that an {@link EditSession} gives the classification of the edited version without classifying it again.
+ * <p>
+ * For each benchmark pair a session is started and random edits are applied to the modified version: typing and
+ * deleting single characters, replacing words, adding citations, and deleting or inserting text across paragraph
+ * boundaries. After every edit
+ * <ul>
+ * <li>the changes of the session must turn the original into the edited version,</li>
+ * <li>the tags of the session must match those {@link ChangeClassifier#getClassification} assigns to the same
+ * changes, in class and position,</li>
+ * <li>tags that differ from a classification of a new diff of the whole document are reported only, since
+ * diff_match_patch may cut changes differently when the whole text is diffed.</li>
+ * </ul>
+ * The exit code is 1 if an edit fails one of the first two checks.
+ * <p>
+ * Usage: EditSessionCheck [edits per document (5)] [seed (42)]
+ */
+public class EditSessionCheck {
+    private static final String[] WORDS = { "the", "teh", "river", "temple", "quickly", "a", "[12]", "which" };
+
+    public static void main(String[] args) throws IOException {
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        ChangeClassifier.setVerbose(false);
+        Random random = new Random(seed);
+        int failed = 0;
+        long incrementalNanos = 0, fullNanos = 0;
+        for (String[] document : EquivalenceCheck.loadDocuments(0, seed)) {
+            String original = document[1];
+            EditSession session = new EditSession(original, document[2]);
+            for (int e = 0; e < edits; ++e) {
+                String modified = session.getModified();
+                int offset = random.nextInt(modified.length() + 1);
+                int deleted = 0;
+                String inserted = "";
+                switch (random.nextInt(5)) {
+                case 0:
+                    inserted = Character.toString((char) ('a' + random.nextInt(26)));
+                    break;
+                case 1:
+                    deleted = Math.min(1, modified.length() - offset);
+                    break;
+                case 2:
+                    deleted = wordLength(modified, offset);
+                    inserted = WORDS[random.nextInt(WORDS.length)];
+                    break;
+                case 3:
+                    inserted = " [" + (1 + random.nextInt(200)) + "]";
+                    break;
+                default:
+                    // across the end of the paragraph
+                    int end = modified.indexOf('\n', offset);
+                    deleted = end < 0 ? 0 : Math.min(end + 2, modified.length()) - offset;
+                    inserted = random.nextBoolean() ? "" : "\nA new paragraph. ";
+                    break;
+                }
+
+                long start = System.nanoTime();
+                ArrayList<ChangeTag> incremental = session.edit(offset, deleted, inserted);
+                incrementalNanos += System.nanoTime() - start;
+                String edited = session.getModified();
+                ArrayList<Change> changes = session.getChanges();
+                boolean consistent = apply(original, changes).equals(edited);
+                int differences = compare(incremental,
+                        ChangeClassifier.getClassification(changes, original, edited), true);
+
+                start = System.nanoTime();
+                ArrayList<ChangeTag> full = ChangeClassifier.getClassification(
+                        ChangeDetector.getDocumentChanges(original, edited), original, edited);
+                fullNanos += System.nanoTime() - start;
+                int cut = compare(incremental, full, false);
+
+                System.out.println(String.format("%s edit %d at %d (-%d +%d): %d tags%s, %d differ, "
+                        + "%d differ from a new diff (reported only)", document[0], e, offset, deleted,
+                        inserted.length(), incremental.size(), consistent ? "" : ", CHANGES INCONSISTENT",
+                        differences, cut));
+                if (!consistent || differences > 0) {
+                    ++failed;
+                }
+            }
+        }
+        System.out.println(String.format("incremental %d ms, full %d ms", incrementalNanos / 1000000,
+                fullNanos / 1000000));
+        System.out.println(failed == 0 ? "All edits match" : failed + " edits differ");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // private methods
+    // Number of positions at which the tags differ in class or position, printing each of them if asked to.
+    private static int compare(ArrayList<ChangeTag> actual, ArrayList<ChangeTag> reference, boolean print) {
+        int differences = 0;
+        for (int i = 0; i < Math.max(actual.size(), reference.size()); ++i) {
+            String expected = EquivalenceCheck.describe(i < reference.size() ? reference.get(i) : null);
+            String found = EquivalenceCheck.describe(i < actual.size() ? actual.get(i) : null);
+            if (!expected.equals(found)) {
+                if (print) {
+                    System.out.println("  " + i + ": expected " + expected + ", found " + found);
+                }
+                ++differences;
+            }
+        }
+        return differences;
+    }
+
+    // Modified version given by applying changes, ordered by position, to the original version.
+    private static String apply(String original, ArrayList<Change> changes) {
+        StringBuilder result = new StringBuilder();
+        int pos = 0;
+        for (Change c : changes) {
+            if (c.getPos1() < pos || c.getPos2() != result.length() + c.getPos1() - pos
+                    || !original.startsWith(c.getBefore(), c.getPos1())) {
+                return "";
+            }
+            result.append(original, pos, c.getPos1()).append(c.getAfter());
+            pos = c.getPos1() + c.getBefore().length();
+        }
+        return result.append(original.substring(pos)).toString();
+    }
+
+    // Length of the word starting at a position, 0 if there is none.
+    private static int wordLength(String text, int offset) {
+        int end = offset;
+        while (end < text.length() && Character.isLetter(text.charAt(end))) {
+            ++end;
+        }
+        return end - offset;
+    }
+    // private methods
+}
@@ -0,0 +1,262 @@
+package ps.changeclassifier;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import ps.NutCracker;
+import ps.models.Change;
+import ps.models.ChangeTag;
+import ps.utils.CSVUtils;
+import ps.utils.EvalUtils;
+import ps.utils.GrammarClient;
+import ps.utils.LP;
+
+/**
+ * Checks that optimized execution modes assign the same tags as the reference pipeline.
+ * <p>
+ * The reference classifies every change on its own, one after another, with empty caches and LanguageTool running
+ * every rule. Each mode enables one optimization and classifies the benchmark pairs and documents generated from
+ * them by random edits. Tags that differ in class or in position are written to ./equivalence.csv, together with the
+ * time of each mode relative to the reference.
+ * <p>
+ * Modes are checked as strictly as their design allows: most must match in class and position; sentence alignment
+ * tags whole aligned sentences, so only classes must match; whitespace normalization cuts changes differently and
+ * the pre-classifier, calibrated on the stages for the same documents, approximates them, so their differences
+ * are reported only. The exit code is 1 if any
+ * mode differs beyond what it is checked for.
+ * <p>
+ * Usage: EquivalenceCheck [number of generated documents] [seed]
+ */
+public class EquivalenceCheck {
+    private static final String[] paths = { "angkorwat_1.txt", "angkorwat_2.txt", "antarctica_1.txt",
+            "antarctica_2.txt", "atheism_1.txt", "atheism_2.txt", "brit_1.txt", "brit_2.txt", "dna_1.txt",
+            "dna_2.txt" };
+    private static final String REPORT = "./equivalence.csv";
+
+    // calibrated on the reference configuration before the modes run
+    private static PreClassifier preClassifier;
+
+    private static final Mode[] modes = {
+            new Mode("deduplication", () -> ChangeClassifier.setDeduplication(true), false, Check.EXACT),
+            new Mode("virtualThreads", () -> ChangeClassifier.setVirtualThreads(true), false, Check.EXACT),
+            new Mode("sentenceAlignment", () -> ChangeClassifier.setSentenceAlignment(true), false, Check.TAGS),
+            new Mode("normalizeWhitespace", () -> ChangeDetector.setNormalization(true), false, Check.REPORT),
+            new Mode("grammarProfile", () -> setGrammarProfile("classifier"), false, Check.EXACT),
+            new Mode("preClassifier", () -> ChangeClassifier.setPreClassifier(preClassifier), false, Check.REPORT),
+            new Mode("warmCaches", () -> {
+            }, true, Check.EXACT),
+            new Mode("all", () -> {
+                ChangeClassifier.setDeduplication(true);
+                ChangeClassifier.setVirtualThreads(true);
+                setGrammarProfile("classifier");
+            }, true, Check.EXACT) };
+
+    public static void main(String[] args) throws IOException {
+        int generated = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        ChangeClassifier.setVerbose(false);
+        ArrayList<String[]> documents = loadDocuments(generated, seed);
+        System.out.println(documents.size() + " document pairs");
+
+        // untimed run, so that resources are loaded and the reference is not slowed down by them
+        reset();
+        classifyAll(documents, false);
+        reset();
+        long start = System.nanoTime();
+        ArrayList<ArrayList<ChangeTag>> reference = classifyAll(documents, false);
+        long referenceNanos = System.nanoTime() - start;
+        System.out.println(String.format("%-20s %6d ms", "reference", referenceNanos / 1000000));
+        preClassifier = PreClassifierCalibration.calibrate(documents, 0.9, 20);
+
+        int differing = 0;
+        try (FileWriter writer = new FileWriter(REPORT)) {
+            CSVUtils.writeLine(writer, Arrays.asList("Mode", "Document", "Index", "Reference", "Actual"));
+            for (Mode mode : modes) {
+                reset();
+                mode.enable.run();
+                if (mode.warm) {
+                    // caches filled by one run, timed on the next
+                    classifyAll(documents, true);
+                }
+                start = System.nanoTime();
+                ArrayList<ArrayList<ChangeTag>> actual = classifyAll(documents, mode.warm);
+                long nanos = System.nanoTime() - start;
+                int differences = 0, classes = 0;
+                for (int d = 0; d < documents.size(); ++d) {
+                    int[] diff = compare(mode.name, documents.get(d)[0], reference.get(d), actual.get(d), writer);
+                    differences += diff[0];
+                    classes += diff[1];
+                }
+                double speedup = (double) referenceNanos / Math.max(1, nanos);
+                CSVUtils.writeLine(writer, Arrays.asList(mode.name, "", "", "speedup",
+                        String.format("%.2f", speedup)));
+                System.out.println(String.format("%-20s %6d ms  speedup %5.2f  %d differences, %d in class%s",
+                        mode.name, nanos / 1000000, speedup, differences, classes,
+                        mode.check == Check.REPORT ? " (reported only)" : ""));
+                if (mode.check == Check.EXACT ? differences > 0 : mode.check == Check.TAGS && classes > 0) {
+                    ++differing;
+                }
+            }
+        }
+        reset();
+        System.out.println(differing == 0 ? "All modes match as checked" : differing + " modes differ, see " + REPORT);
+        System.exit(differing == 0 ? 0 : 1);
+    }
+
+    // private methods
+    // Reference configuration: no optimization enabled.
+    private static void reset() {
+        ChangeClassifier.setDeduplication(false);
+        ChangeClassifier.setVirtualThreads(false);
+        ChangeClassifier.setSentenceAlignment(false);
+        ChangeDetector.setNormalization(false);
+        ChangeClassifier.setPreClassifier(null);
+        setGrammarProfile("all");
+    }
+
+    private static void setGrammarProfile(String profile) {
+        System.setProperty("nutcracker.languagetool.profile", profile);
+        try {
+            LP.setGrammarClient(GrammarClient.fromProperties());
+        } catch (IOException e) {
+            System.out.println("Could not create LanguageTool client: " + e.getMessage());
+        }
+    }
+
+    private static ArrayList<ArrayList<ChangeTag>> classifyAll(ArrayList<String[]> documents, boolean warm) {
+        ArrayList<ArrayList<ChangeTag>> results = new ArrayList<>();
+        for (String[] document : documents) {
+            if (!warm) {
+                LP.clearCaches();
+                ChangeClassifier.getWordPairCache().clear();
+                ChangeAnalyzer.clearSentenceCache();
+            }
+            results.add(NutCracker.getChangeClassification(document[1], document[2]));
+        }
+        return results;
+    }
+
+    // Writes a line per tag that differs in class or position, returns their number and how many differ in class.
+    private static int[] compare(String mode, String document, ArrayList<ChangeTag> reference,
+            ArrayList<ChangeTag> actual, FileWriter writer) throws IOException {
+        int[] differences = new int[2];
+        for (int i = 0; i < Math.max(reference.size(), actual.size()); ++i) {
+            ChangeTag expected = i < reference.size() ? reference.get(i) : null;
+            ChangeTag found = i < actual.size() ? actual.get(i) : null;
+            if (!describe(expected).equals(describe(found))) {
+                CSVUtils.writeLine(writer,
+                        Arrays.asList(mode, document, Integer.toString(i), describe(expected), describe(found)));
+                ++differences[0];
+                if (expected == null || found == null || expected.getTag() != found.getTag()) {
+                    ++differences[1];
+                }
+            }
+        }
+        return differences;
+    }
+
+    // Tag with the position and length of the change in both versions, e.g. SPELLING 10+5 12+5
+    static String describe(ChangeTag tag) {
+        if (tag == null) {
+            return "";
+        }
+        Change c = tag.getChange();
+        return tag.getTag() + " " + c.getPos1() + "+" + c.getBefore().length() + " " + c.getPos2() + "+"
+                + c.getAfter().length();
+    }
+
+    // Benchmark pairs followed by generated ones, each as {name, original, modified}.
+    static ArrayList<String[]> loadDocuments(int generated, long seed) throws IOException {
+        ArrayList<String[]> documents = new ArrayList<>();
+        for (int i = 0; i < paths.length; i += 2) {
+            documents.add(new String[] { paths[i].replace("_1.txt", ""), read(paths[i]), read(paths[i + 1]) });
+        }
+        Random random = new Random(seed);
+        int benchmark = documents.size();
+        for (int g = 0; g < generated; ++g) {
+            String base = documents.get(g % benchmark)[1];
+            String other = documents.get((g + 1) % benchmark)[1];
+            documents.add(new String[] { "generated" + g, base, edit(base, other, random) });
+        }
+        return documents;
+    }
+
+    private static String read(String name) throws IOException {
+        return EvalUtils.readFile(EquivalenceCheck.class.getClassLoader().getResource(name).getPath());
+    }
+
+    /*
+    Applies random edits to the sentences of a document, one kind of change per edited sentence:
+    swapped letters, repeated words, wrong articles, citations, extra spaces, removed sentences and
+    sentences taken from another document.
+    */
+    private static String edit(String text, String other, Random random) {
+        String[] sentences = text.split("(?<=\\. )");
+        String[] foreign = other.split("(?<=\\. )");
+        StringBuilder result = new StringBuilder();
+        for (String sentence : sentences) {
+            if (random.nextDouble() > 0.3) {
+                result.append(sentence);
+                continue;
+            }
+            String[] words = sentence.split(" ");
+            int w = random.nextInt(words.length);
+            switch (random.nextInt(7)) {
+            case 0:
+                if (words[w].length() > 3) {
+                    char[] letters = words[w].toCharArray();
+                    char c = letters[1];
+                    letters[1] = letters[2];
+                    letters[2] = c;
+                    words[w] = new String(letters);
+                }
+                break;
+            case 1:
+                words[w] = words[w] + " " + words[w];
+                break;
+            case 2:
+                words[w] = "a " + words[w];
+                break;
+            case 3:
+                words[w] = words[w] + " [" + (1 + random.nextInt(30)) + "]";
+                break;
+            case 4:
+                words[w] = words[w] + " ";
+                break;
+            case 5:
+                words = new String[0];
+                break;
+            default:
+                words = new String[] { foreign[random.nextInt(foreign.length)] };
+                break;
+            }
+            result.append(String.join(" ", words));
+        }
+        return result.toString();
+    }
+    // private methods
+
+    // How a mode must match the reference: in class and position, in class only, or not at all.
+    private static enum Check {
+        EXACT, TAGS, REPORT
+    }
+
+    // Optimization that is enabled on top of the reference configuration.
+    private static class Mode {
+        final String name;
+        final Runnable enable;
+        // run once before timing, so that caches are filled
+        final boolean warm;
+        final Check check;
+
+        Mode(String name, Runnable enable, boolean warm, Check check) {
+            this.name = name;
+            this.enable = enable;
+            this.warm = warm;
+            this.check = check;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ps.changeclassifier;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import ps.models.Change;
+import ps.models.ChangeTag;
+import ps.utils.TermVectorIndex;
+
+/**
+ * Calibrates the pre-classifier against the stages on the benchmark pairs and documents generated from them by
+ * random edits.
+ * <p>
+ * Every change is classified by the stages alone, with an unlimited budget; degraded tags are left out. The rates of the pre-classifier are
+ * measured per threshold with each document left out in turn: the counts of all other documents decide which of
+ * its changes are bypassed, and a bypassed change agrees if the stages gave it the same tag and extension. The
+ * counts of all documents are written to a file that can be loaded with -Dnutcracker.preclassifier.model=...
+ * <p>
+ * Usage: PreClassifierCalibration [output (./preclassifier.txt)] [number of generated documents] [seed]
+ */
+public class PreClassifierCalibration {
+    private static final double[] THRESHOLDS = { 0.8, 0.9, 0.95, 0.99 };
+
+    public static void main(String[] args) throws IOException {
+        Path output = Paths.get(args.length > 0 ? args[0] : "./preclassifier.txt");
+        int generated = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        ChangeClassifier.setVerbose(false);
+        ChangeClassifier.setPreClassifier(null);
+        ArrayList<String[]> documents = EquivalenceCheck.loadDocuments(generated, seed);
+
+        // features and label of every change, per document
+        ArrayList<ArrayList<String>> keys = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> labels = new ArrayList<>();
+        for (String[] document : documents) {
+            ArrayList<String> k = new ArrayList<>();
+            ArrayList<Integer> l = new ArrayList<>();
+            label(document[1], document[2], k, l);
+            keys.add(k);
+            labels.add(l);
+            System.out.println(document[0] + ": " + k.size() + " changes");
+        }
+
+        for (double threshold : THRESHOLDS) {
+            long changes = 0, bypassed = 0, agreed = 0;
+            for (int d = 0; d < documents.size(); ++d) {
+                PreClassifier pre = new PreClassifier(threshold, 0);
+                for (int other = 0; other < documents.size(); ++other) {
+                    if (other != d) {
+                        for (int i = 0; i < keys.get(other).size(); ++i) {
+                            pre.record(keys.get(other).get(i), labels.get(other).get(i));
+                        }
+                    }
+                }
+                for (int i = 0; i < keys.get(d).size(); ++i) {
+                    int label = pre.predict(keys.get(d).get(i));
+                    ++changes;
+                    if (label >= 0) {
+                        ++bypassed;
+                        if (label == labels.get(d).get(i)) {
+                            ++agreed;
+                        }
+                    }
+                }
+            }
+            System.out.println(String.format("threshold %.2f: %d of %d changes bypassed (%.1f%%), %d agreed (%.1f%%)",
+                    threshold, bypassed, changes, 100.0 * bypassed / Math.max(1, changes), agreed,
+                    100.0 * agreed / Math.max(1, bypassed)));
+        }
+
+        PreClassifier pre = new PreClassifier(0, 0);
+        for (int d = 0; d < documents.size(); ++d) {
+            for (int i = 0; i < keys.get(d).size(); ++i) {
+                pre.record(keys.get(d).get(i), labels.get(d).get(i));
+            }
+        }
+        pre.save(output);
+        System.out.println(pre.getClasses() + " classes written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * @param documents Pairs of documents, each as {name, original, modified}.
+     * @param threshold Minimum confidence of the pre-classifier.
+     * @param audit Interval of audited changes, 0 for none.
+     * @return Pre-classifier with the counts of the tags the stages gave the changes of all documents.
+     */
+    static PreClassifier calibrate(List<String[]> documents, double threshold, int audit) {
+        PreClassifier pre = new PreClassifier(threshold, audit);
+        for (String[] document : documents) {
+            ArrayList<String> keys = new ArrayList<>();
+            ArrayList<Integer> labels = new ArrayList<>();
+            label(document[1], document[2], keys, labels);
+            for (int i = 0; i < keys.size(); ++i) {
+                pre.record(keys.get(i), labels.get(i));
+            }
+        }
+        return pre;
+    }
+
+    // private methods
+    // Adds the features of each change of a pair and the label of the tag the stages gave it.
+    private static void label(String text1, String text2, List<String> keys, List<Integer> labels) {
+        ClassificationPipeline pipeline = ChangeClassifier.getPipeline();
+        TermVectorIndex termIndex = new TermVectorIndex(text1);
+        for (Change change : ChangeDetector.getDocumentChanges(text1, text2)) {
+            if (ChangeDetector.isNormalization() && ChangeDetector.isWhitespaceOnly(change)) {
+                continue;
+            }
+            ClassificationContext context = new ClassificationContext(change, text1, text2, Budget.unlimited());
+            context.setTermIndex(termIndex);
+            ChangeTag tag = pipeline.classify(context);
+            if (!tag.isDegraded()) {
+                keys.add(PreClassifier.features(context));
+                labels.add(PreClassifier.labelOf(context, tag));
+            }
+        }
+    }
+    // private methods
+}
@@ -0,0 +1,92 @@
+package ps.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Exercises the retries, the backoff and the circuit breaker of {@link GrammarClient} against a
+ * {@link LanguageToolStub} on a free port.
+ * <p>
+ * Checks that a request is retried until the server answers, that the retries are spaced by the backoff, that
+ * server errors are retried even if reading the body of the error times out, that
+ * client errors are neither retried nor counted toward the circuit, that consecutive server errors open the
+ * circuit, and that a probe after the open period closes it again. The exit code is 1 if a check fails.
+ * <p>
+ * Usage: GrammarClientCheck
+ */
+public class GrammarClientCheck {
+    private static final long BACKOFF = 100;
+    private static final long OPEN_MILLIS = 500;
+    private static int failed = 0;
+
+    public static void main(String[] args) throws Exception {
+        LanguageToolStub stub = new LanguageToolStub(0);
+        stub.start();
+        GrammarClient client = new GrammarClient(stub.getUrl(), 2, 2000, 2000, 2, BACKOFF, 2, OPEN_MILLIS);
+        try {
+            // two failures are retried away, after a backoff of at least 50 and 100 ms
+            stub.failNext(2);
+            int before = stub.getRequests();
+            long start = System.currentTimeMillis();
+            boolean answered = succeeds(client, "This is a a test.");
+            long elapsed = System.currentTimeMillis() - start;
+            check("retried until answered", answered && stub.getRequests() - before == 3);
+            check("backoff between retries (" + elapsed + " ms)", elapsed >= BACKOFF / 2 + BACKOFF);
+
+            // server errors are retried even if reading their body times out
+            GrammarClient impatient = new GrammarClient(stub.getUrl(), 2, 2000, 200, 2, BACKOFF, 2, OPEN_MILLIS);
+            stub.failNext(2, 503, 400);
+            before = stub.getRequests();
+            check("server errors with unreadable body retried",
+                    succeeds(impatient, "Broken error.") && stub.getRequests() - before == 3);
+            impatient.shutdown();
+
+            // client errors fail at once and leave the circuit closed
+            stub.failNext(3, 400);
+            before = stub.getRequests();
+            for (int i = 0; i < 3; ++i) {
+                succeeds(client, "Client error " + i + ".");
+            }
+            check("client errors not retried", stub.getRequests() - before == 3);
+            check("client errors leave the circuit closed", !client.isOpen());
+
+            // two requests failing all attempts open the circuit, the next one is not sent
+            stub.failNext(6);
+            succeeds(client, "First failure.");
+            succeeds(client, "Second failure.");
+            check("server errors open the circuit", client.isOpen());
+            before = stub.getRequests();
+            check("open circuit fails at once", !succeeds(client, "Not sent.") && stub.getRequests() == before);
+
+            // after the open period one probe is let through and closes the circuit
+            Thread.sleep(OPEN_MILLIS + 50);
+            check("probe closes the circuit", succeeds(client, "Probe.") && !client.isOpen());
+            check("closed circuit sends requests", succeeds(client, "After the probe."));
+        } finally {
+            client.shutdown();
+            stub.stop();
+        }
+        System.out.println(failed == 0 ? "All checks passed" : failed + " checks failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // private methods
+    private static boolean succeeds(GrammarClient client, String sentence) throws InterruptedException {
+        try {
+            client.check(sentence).get();
+            return true;
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof IOException)) {
+                throw new IllegalStateException(e.getCause());
+            }
+            return false;
+        }
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "ok     " : "FAILED ") + name);
+        if (!passed) {
+            ++failed;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ps.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for a LanguageTool server, answering POST /v2/check like LanguageTool does.
+ * <p>
+ * Reports repeated words (issue type "duplication"), "a" before a vowel (issue type "grammar") and lower case words
+ * missing from the dictionary (issue type "misspelling"). Rules listed in the parameter disabledRules are skipped,
+ * as LanguageTool does. Responses can be delayed and the first requests can be failed to exercise timeouts, retries and the circuit breaker of
+ * {@link GrammarClient}.
+ * <p>
+ * Usage: LanguageToolStub [port], then run NutCracker with
+ * -Dnutcracker.languagetool.url=http://localhost:port/v2/check
+ */
+public class LanguageToolStub {
+    private static final Pattern REPEAT = Pattern.compile("\\b(\\w+)\\s+\\1\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern A_VOWEL = Pattern.compile("\\b[aA]\\s+[aeiouAEIOU]\\w*");
+    private static final Pattern WORD = Pattern.compile("\\b[a-z]{3,}\\b");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayMillis = 0;
+    private volatile int failuresLeft = 0;
+    private volatile int failureStatus = 503;
+    private volatile long stallMillis = 0;
+
+    public LanguageToolStub(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.createContext("/v2/check", this::handle);
+        this.server.setExecutor(this.executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        LanguageToolStub stub = new LanguageToolStub(args.length > 0 ? Integer.parseInt(args[0]) : 8081);
+        stub.start();
+        System.out.println("LanguageTool stub is listening at " + stub.getUrl());
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/v2/check";
+    }
+
+    public int getRequests() {
+        return this.requests.get();
+    }
+
+    // Delays every response.
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    // Answers the next requests with 503.
+    public void failNext(int failures) {
+        failNext(failures, 503);
+    }
+
+    // Answers the next requests with the given status.
+    public void failNext(int failures, int status) {
+        failNext(failures, status, 0);
+    }
+
+    // Answers the next requests with the given status, stalling in the middle of the error if stallMillis > 0.
+    public void failNext(int failures, int status, long stallMillis) {
+        this.failureStatus = status;
+        this.stallMillis = stallMillis;
+        this.failuresLeft = failures;
+    }
+
+    public static String check(String text) {
+        return check(text, Collections.emptySet());
+    }
+
+    public static String check(String text, Set<String> disabledRules) {
+        JSONArray matches = new JSONArray();
+        Matcher m = REPEAT.matcher(text);
+        while (m.find() && !disabledRules.contains("ENGLISH_WORD_REPEAT_RULE")) {
+            matches.put(match(m.start(), m.end() - m.start(), "ENGLISH_WORD_REPEAT_RULE", "duplication"));
+        }
+        m = A_VOWEL.matcher(text);
+        while (m.find() && !disabledRules.contains("EN_A_VS_AN")) {
+            matches.put(match(m.start(), m.end() - m.start(), "EN_A_VS_AN", "grammar"));
+        }
+        m = WORD.matcher(text);
+        while (m.find() && !disabledRules.contains("MORFOLOGIK_RULE_EN_US")) {
+            if (!LP.inDictionary(m.group())) {
+                matches.put(match(m.start(), m.end() - m.start(), "MORFOLOGIK_RULE_EN_US", "misspelling"));
+            }
+        }
+        return new JSONObject().put("matches", matches).toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        String body = read(exchange.getRequestBody());
+        try {
+            if (this.delayMillis > 0) {
+                Thread.sleep(this.delayMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.failuresLeft > 0) {
+            --this.failuresLeft;
+            if (this.stallMillis > 0) {
+                // sends the status and part of the error, so that a client times out while reading the rest
+                exchange.sendResponseHeaders(this.failureStatus, 1000);
+                exchange.getResponseBody().write("Failed".getBytes(StandardCharsets.UTF_8));
+                exchange.getResponseBody().flush();
+                try {
+                    Thread.sleep(this.stallMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+                return;
+            }
+            respond(exchange, this.failureStatus, "Failed on request");
+            return;
+        }
+        String text = null;
+        Set<String> disabledRules = new HashSet<>();
+        for (String param : body.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).equals("text")) {
+                text = URLDecoder.decode(param.substring(eq + 1), "UTF-8");
+            } else if (eq > 0 && param.substring(0, eq).equals("disabledRules")) {
+                disabledRules.addAll(Arrays.asList(URLDecoder.decode(param.substring(eq + 1), "UTF-8").split(",")));
+            }
+        }
+        if (text == null) {
+            respond(exchange, 400, "Missing 'text' parameter");
+            return;
+        }
+        respond(exchange, 200, check(text, disabledRules));
+    }
+
+    private static JSONObject match(int offset, int length, String id, String issueType) {
+        JSONObject rule = new JSONObject().put("id", id).put("issueType", issueType);
+        return new JSONObject().put("offset", offset).put("length", length).put("rule", rule);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}